@@ -0,0 +1,122 @@
+package io.github.angebagui.equilibre;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Compares the throughput of {@link TaskQueue} with the locked queue it replaced, with several
+ * threads enqueueing tasks on the same queue, like several queries writing to the same table.
+ * <p>
+ * Run it with {@code ./gradlew :equilibre-orm:jmh}.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@Threads(4)
+public class TaskQueueBenchmark {
+
+    private static final Continuation<Void, Task<Void>> NOOP = new Continuation<Void, Task<Void>>() {
+        @Override
+        public Task<Void> then(Task<Void> toAwait) throws Exception {
+            return toAwait.continueWith(new Continuation<Void, Void>() {
+                @Override
+                public Void then(Task<Void> task) throws Exception {
+                    return null;
+                }
+            });
+        }
+    };
+
+    /**
+     * The tasks each thread enqueues per invocation before waiting for them, so that the queue does
+     * not grow without bound while it is measured.
+     */
+    private static final int BATCH = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Queues {
+
+        TaskQueue lockFree;
+        LockedTaskQueue locked;
+
+        @Setup(Level.Iteration)
+        public void setUp(){
+            lockFree = new TaskQueue();
+            locked = new LockedTaskQueue();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void lockFree(Queues queues) throws InterruptedException {
+        Task<Void> last = null;
+        for (int i = 0; i < BATCH; i++){
+            last = queues.lockFree.enqueue(NOOP);
+        }
+        // The tasks run in order: the last one completes after the others
+        last.waitForCompletion();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void locked(Queues queues) throws InterruptedException {
+        Task<Void> last = null;
+        for (int i = 0; i < BATCH; i++){
+            last = queues.locked.enqueue(NOOP);
+        }
+        last.waitForCompletion();
+    }
+
+    /**
+     * The baseline: the queue TaskQueue replaced, where every task is chained to the tail under a lock.
+     */
+    static class LockedTaskQueue {
+
+        private final Lock lock = new ReentrantLock();
+        private Task<Void> tail;
+
+        <T> Task<T> enqueue(Continuation<Void, Task<T>> taskStart){
+            lock.lock();
+            try {
+                Task<Void> oldTail = tail != null ? tail : Task.<Void>forResult(null);
+                Task<T> task;
+                try {
+                    task = taskStart.then(oldTail.continueWith(new Continuation<Void, Void>() {
+                        @Override
+                        public Void then(Task<Void> task) throws Exception {
+                            return null;
+                        }
+                    }));
+                }catch (Exception e){
+                    throw new RuntimeException(e);
+                }
+                tail = Task.whenAll(Arrays.asList(oldTail, task));
+                return task;
+            }finally {
+                lock.unlock();
+            }
+        }
+    }
+}
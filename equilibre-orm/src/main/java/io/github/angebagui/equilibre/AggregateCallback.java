@@ -0,0 +1,34 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * An {@code AggregateCallback} is used to run code after a {@link EquilibreQuery} is used to compute
+ * an aggregate, such as a sum or an average, in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the aggregate is computed by the
+ * database in a background thread. This ensures that the UI does not freeze while the query happens.
+ * </p>
+ * <pre>
+ * EquilibreQuery&lt;Order, Long&gt; query = EquilibreQuery.getQuery(Order.class);
+ * query.aggregateInBackground(EquilibreQuery.Aggregate.SUM, "amount", new AggregateCallback() {
+ *   public void done(Double total, EquilibreException e) {
+ *     if (e == null) {
+ *       showTotal(total);
+ *     } else {
+ *       aggregateFailed();
+ *     }
+ *   }
+ * });
+ * </pre>
+ */
+public interface AggregateCallback extends EquilibreCallback2<Double, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the aggregate is computed.
+     *
+     * @param value
+     *          The aggregate, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the query, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(Double value, EquilibreException e);
+}
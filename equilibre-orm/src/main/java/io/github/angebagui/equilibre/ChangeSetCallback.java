@@ -0,0 +1,24 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * A {@code ChangeSetCallback} is used to run code each time the result of a query observed with
+ * {@link EquilibreQuery#observeChanges(ChangeSetCallback)} changes.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the query runs and the changes are
+ * computed in a background thread. This ensures that the UI does not freeze while the query happens.
+ * </p>
+ *
+ * @param <T> the EquilibreObject's subclass
+ */
+public interface ChangeSetCallback<T extends EquilibreObject> extends EquilibreCallback2<EquilibreChangeSet<T>, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the result changed.
+     *
+     * @param changes
+     *          The new result and its changes from the previous one, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the query, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(EquilibreChangeSet<T> changes, EquilibreException e);
+}
@@ -14,6 +14,23 @@ public class Equilibre {
         EquilibrePlugins.Android.initialize(context, databaseName, databaseVersion);
     }
 
+    /**
+     * Initializes Equilibre with a database in write-ahead logging mode: the readers no longer wait
+     * for the writer, nor the writer for the readers. The queries run on {@code readConnections}
+     * read-only connections, so that they also run concurrently with each other.
+     *
+     * @param context your context
+     * @param databaseName the name of the database file
+     * @param databaseVersion the version of the schema
+     * @param writeAheadLogging {@code true} to enable the write-ahead logging
+     * @param readConnections the number of read-only connections, 0 to run the queries on the single
+     *                        connection; requires the write-ahead logging
+     */
+    public static void initialize(Context context, String databaseName, Integer databaseVersion,
+                                  boolean writeAheadLogging, int readConnections) {
+        EquilibrePlugins.Android.initialize(context, databaseName, databaseVersion, writeAheadLogging, readConnections);
+    }
+
     /**
      * @return {@code True} if {@link #initialize} has been called, otherwise {@code false}.
      */
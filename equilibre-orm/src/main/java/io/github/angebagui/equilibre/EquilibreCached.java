@@ -0,0 +1,30 @@
+package io.github.angebagui.equilibre;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps the objects of the annotated {@link EquilibreObject} subclass in the {@link EquilibreObjectCache},
+ * so that reading them again by id does not query the database. Use it on reference data, read often
+ * and changed rarely.
+ * <pre>
+ * &#64;EquilibreClassName("Country")
+ * &#64;EquilibreCached(maxEntries = 300)
+ * public class Country extends EquilibreObject&lt;String&gt; { ... }
+ * </pre>
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface EquilibreCached {
+
+    /**
+     * The maximum number of objects of the class kept in the cache, the least recently used is
+     * evicted first.
+     */
+    int maxEntries() default 1000;
+
+}
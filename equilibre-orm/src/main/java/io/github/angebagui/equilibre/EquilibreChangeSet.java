@@ -0,0 +1,214 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An {@code EquilibreChangeSet} holds the new result of an observed query with its changes from the
+ * previous result, computed in a background thread by
+ * {@link EquilibreQuery#observeChanges(ChangeSetCallback)}. The objects are matched by
+ * {@link EquilibreObject#getEquilibreId()}:
+ * </p>
+ * <ul>
+ * <li>{@link #getRemoved()} are the positions, in the previous result, of the ids no longer found;</li>
+ * <li>{@link #getInserted()} are the positions, in the new result, of the new ids;</li>
+ * <li>{@link #getMovedFrom()} and {@link #getMovedTo()} are the previous and new positions of the
+ * objects whose order changed, as few as possible;</li>
+ * <li>{@link #getChanged()} are the positions, in the new result, of the objects whose fields changed.</li>
+ * </ul>
+ * <p>
+ * The first change set of an observation has every object inserted. The positions are in ascending
+ * order, except the moves which follow the new order.
+ * </p>
+ *
+ * @param <T> the EquilibreObject's subclass
+ */
+public class EquilibreChangeSet<T extends EquilibreObject> {
+
+    private final List<T> objects;
+    private final int[] removed;
+    private final int[] inserted;
+    private final int[] movedFrom;
+    private final int[] movedTo;
+    private final int[] changed;
+
+    private EquilibreChangeSet(List<T> objects, int[] removed, int[] inserted, int[] movedFrom, int[] movedTo,
+                               int[] changed) {
+        this.objects = objects;
+        this.removed = removed;
+        this.inserted = inserted;
+        this.movedFrom = movedFrom;
+        this.movedTo = movedTo;
+        this.changed = changed;
+    }
+
+    /**
+     *
+     * @return the new result of the query
+     */
+    public List<T> getObjects(){
+        return objects;
+    }
+
+    /**
+     *
+     * @return the positions, in the previous result, of the removed objects
+     */
+    public int[] getRemoved(){
+        return removed;
+    }
+
+    /**
+     *
+     * @return the positions, in the new result, of the inserted objects
+     */
+    public int[] getInserted(){
+        return inserted;
+    }
+
+    /**
+     *
+     * @return the positions, in the previous result, of the moved objects
+     */
+    public int[] getMovedFrom(){
+        return movedFrom;
+    }
+
+    /**
+     *
+     * @return the positions, in the new result, of the moved objects
+     */
+    public int[] getMovedTo(){
+        return movedTo;
+    }
+
+    /**
+     *
+     * @return the positions, in the new result, of the changed objects
+     */
+    public int[] getChanged(){
+        return changed;
+    }
+
+    /**
+     *
+     * @return {@code true} if the new result is the same as the previous one
+     */
+    public boolean isEmpty(){
+        return removed.length == 0 && inserted.length == 0 && movedFrom.length == 0 && changed.length == 0;
+    }
+
+    /**
+     * Computes the changes from the previous result to the new one, in O(n log n). The fields of the
+     * objects present in both are compared with {@link Dao#objectsEqual(Object, Object)}, so the two
+     * results must not share instances: they are read without the {@link EquilibreObjectCache}.
+     *
+     * @param previous the previous result
+     * @param objects the new result
+     * @param dao the DAO of the class
+     * @return the change set
+     * @throws SQLException an SQL exception can be thrown if the fields can not be compared
+     */
+    /* package */ static <T extends EquilibreObject> EquilibreChangeSet<T> compute(List<T> previous, List<T> objects,
+                                                                                Dao<T, ?> dao) throws SQLException {
+        Map<Object, Integer> previousPositions = new HashMap<Object, Integer>(previous.size() * 2);
+        for (int i = 0; i < previous.size(); i++){
+            previousPositions.put(previous.get(i).getEquilibreId(), i);
+        }
+        Map<Object, Integer> positions = new HashMap<Object, Integer>(objects.size() * 2);
+        for (int i = 0; i < objects.size(); i++){
+            positions.put(objects.get(i).getEquilibreId(), i);
+        }
+
+        List<Integer> removed = new ArrayList<Integer>();
+        for (int i = 0; i < previous.size(); i++){
+            if (!positions.containsKey(previous.get(i).getEquilibreId())){
+                removed.add(i);
+            }
+        }
+
+        List<Integer> inserted = new ArrayList<Integer>();
+        List<Integer> changed = new ArrayList<Integer>();
+        // The previous and new positions of the objects kept, in the new order
+        List<Integer> keptFrom = new ArrayList<Integer>();
+        List<Integer> keptTo = new ArrayList<Integer>();
+        for (int i = 0; i < objects.size(); i++){
+            T object = objects.get(i);
+            Integer from = previousPositions.get(object.getEquilibreId());
+            if (from == null){
+                inserted.add(i);
+                continue;
+            }
+            keptFrom.add(from);
+            keptTo.add(i);
+            T before = previous.get(from);
+            if (before != object && !dao.objectsEqual(before, object)){
+                changed.add(i);
+            }
+        }
+
+        // The kept objects in the longest increasing run of previous positions did not move
+        boolean[] stayed = longestIncreasing(keptFrom);
+        List<Integer> movedFrom = new ArrayList<Integer>();
+        List<Integer> movedTo = new ArrayList<Integer>();
+        for (int k = 0; k < stayed.length; k++){
+            if (!stayed[k]){
+                movedFrom.add(keptFrom.get(k));
+                movedTo.add(keptTo.get(k));
+            }
+        }
+
+        return new EquilibreChangeSet<T>(Collections.unmodifiableList(objects), toArray(removed), toArray(inserted),
+                toArray(movedFrom), toArray(movedTo), toArray(changed));
+    }
+
+    /**
+     * Finds a longest strictly increasing subsequence, in O(n log n).
+     *
+     * @return for each value, {@code true} if it belongs to the subsequence
+     */
+    private static boolean[] longestIncreasing(List<Integer> values){
+        int size = values.size();
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++){
+            int value = values.get(i);
+            int low = 0;
+            int high = length;
+            while (low < high){
+                int middle = (low + high) >>> 1;
+                if (values.get(tails[middle]) < value){
+                    low = middle + 1;
+                }else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length){
+                length++;
+            }
+        }
+        boolean[] member = new boolean[size];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]){
+            member[i] = true;
+        }
+        return member;
+    }
+
+    private static int[] toArray(List<Integer> values){
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++){
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.PreparedQuery;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import bolts.Task;
+
+/**
+ * <p>
+ * The {@code EquilibreCompiledQuery} class is an immutable query returned by {@link EquilibreQuery#compile()}.
+ * Its statements are prepared once, it holds no lock and no running state, so it can be kept in a field
+ * and run concurrently from any number of threads.
+ * </p>
+ * <p>
+ * The values compared by the query are its arguments, in the order they were given to the {@code where}
+ * methods of the {@link EquilibreQuery}. {@link #bind(Object...)} returns the same query with other
+ * arguments, without preparing anything again.
+ * </p>
+ * <pre>
+ * EquilibreCompiledQuery&lt;Message&gt; byAuthor = EquilibreQuery.getQuery(Message.class)
+ *         .whereEqualTo("author", someAuthorId).compile();
+ * List&lt;Message&gt; messages = byAuthor.bind(authorId).find();
+ * </pre>
+ *
+ * @param <T> the type of the queried objects
+ */
+public class EquilibreCompiledQuery<T extends EquilibreObject> {
+
+    private final Dao<T, ?> dao;
+    private final PreparedQuery<T> select;
+    private final PreparedQuery<T> count;
+    private final Object[] arguments;
+
+    /* package */ EquilibreCompiledQuery(Dao<T, ?> dao, PreparedQuery<T> select, PreparedQuery<T> count,
+                                         Object[] arguments) {
+        this.dao = dao;
+        this.select = select;
+        this.count = count;
+        this.arguments = arguments;
+    }
+
+    /**
+     *
+     * @return the number of values the query compares, expected by {@link #bind(Object...)}
+     */
+    public int getArgumentCount(){
+        return arguments.length;
+    }
+
+    /**
+     * Returns the same query comparing to other values. This query is not modified.
+     *
+     * @param arguments the new values, in the order they were given to the {@code where} methods
+     * @return the query bound to the values
+     */
+    public EquilibreCompiledQuery<T> bind(Object... arguments){
+        if (arguments.length != this.arguments.length){
+            throw new IllegalArgumentException("The query expects " + this.arguments.length
+                    + " arguments, " + arguments.length + " given");
+        }
+        for (Object argument : arguments){
+            if (argument == null || argument instanceof EquilibreObject){
+                throw new IllegalArgumentException("A compiled query can not compare to null or to an object");
+            }
+        }
+        return new EquilibreCompiledQuery<T>(dao, select, count, arguments.clone());
+    }
+
+    /**
+     * Runs the query on the calling thread.
+     *
+     * @return the objects found
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public List<T> find() throws EquilibreException {
+        try {
+            return PreparedQueries.query(dao.getConnectionSource(), select, arguments, StatementType.SELECT,
+                    select, dao.getObjectCache());
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Runs the query in a background thread.
+     *
+     * @param callback this callback run on the mainthread
+     */
+    public void findInBackground(FindCallback<T> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(Task.call(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return find();
+            }
+        }, EquilibreExecutors.reader()), callback);
+    }
+
+    /**
+     * Runs the query on the calling thread and returns its first object.
+     *
+     * @return the first object found, or {@code null}
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public T getFirst() throws EquilibreException {
+        try {
+            return PreparedQueries.queryForFirst(dao.getConnectionSource(), select, arguments, StatementType.SELECT,
+                    select, dao.getObjectCache());
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Find the first object in a background thread.
+     *
+     * @param callback this callback run on the mainthread
+     */
+    public void getFirstInBackground(GetCallback<T> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(Task.call(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return getFirst();
+            }
+        }, EquilibreExecutors.reader()), callback);
+    }
+
+    /**
+     * Counts the objects matching the query on the calling thread.
+     *
+     * @return the count in the database
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long count() throws EquilibreException {
+        try {
+            return PreparedQueries.queryForFirst(dao.getConnectionSource(), count, arguments,
+                    StatementType.SELECT_LONG, PreparedQueries.LONG_MAPPER, null);
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Counts the objects matching the query in a background thread.
+     *
+     * @param callback {@code callback.done(count, e)} is called on the main thread
+     */
+    public void countInBackground(CountCallback callback){
+        EquilibreQuery.callbackOnMainThreadAsync(Task.call(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return count();
+            }
+        }, EquilibreExecutors.reader()), callback);
+    }
+}
@@ -3,7 +3,13 @@ package io.github.angebagui.equilibre;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import bolts.Task;
 
@@ -14,6 +20,109 @@ public class EquilibreExecutors {
 
     private static ScheduledExecutorService scheduledExecutor;
     private static final Object SCHEDULED_EXECUTOR_LOCK = new Object();
+
+    private static ThreadPoolExecutor writerExecutor;
+    private static ThreadPoolExecutor readerExecutor;
+    private static PriorityExecutor[] writers;
+    private static PriorityExecutor[] readers;
+    private static int readerPoolSize = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final Object DATABASE_EXECUTORS_LOCK = new Object();
+
+    /**
+     * The order of submission, which orders the work of a same priority.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * SQLite serializes the writers: every save, update and delete of Equilibre runs on this single
+     * thread, so the writes never contend with each other.
+     *
+     * @return the writer executor, at the {@link EquilibrePriority#NORMAL} priority
+     */
+    public static Executor writer(){
+        return writer(EquilibrePriority.NORMAL);
+    }
+
+    /**
+     * The waiting writes of the highest priority run first on the single writer thread, in the order
+     * they were submitted within a priority.
+     *
+     * @param priority the priority of the writes
+     * @return the writer executor at this priority
+     */
+    public static Executor writer(EquilibrePriority priority){
+        synchronized (DATABASE_EXECUTORS_LOCK){
+            if (writerExecutor==null){
+                writerExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new PriorityBlockingQueue<Runnable>(), new DatabaseThreadFactory("Equilibre-writer"));
+                writers = PriorityExecutor.of(writerExecutor);
+            }
+            return writers[priority.ordinal()];
+        }
+    }
+
+    /**
+     * The queries of Equilibre run on this pool of {@link #getReaderPoolSize()} threads, separated
+     * from the writer and from the other users of {@link #io()}.
+     *
+     * @return the reader executor, at the {@link EquilibrePriority#NORMAL} priority
+     */
+    public static Executor reader(){
+        return reader(EquilibrePriority.NORMAL);
+    }
+
+    /**
+     * The waiting queries of the highest priority are the first to get a reader thread, in the order
+     * they were submitted within a priority.
+     *
+     * @param priority the priority of the queries
+     * @return the reader executor at this priority
+     */
+    public static Executor reader(EquilibrePriority priority){
+        synchronized (DATABASE_EXECUTORS_LOCK){
+            if (readerExecutor==null){
+                readerExecutor = new ThreadPoolExecutor(readerPoolSize, readerPoolSize, 30, TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<Runnable>(), new DatabaseThreadFactory("Equilibre-reader"));
+                readerExecutor.allowCoreThreadTimeOut(true);
+                readers = PriorityExecutor.of(readerExecutor);
+            }
+            return readers[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Sets the number of threads running the queries. By default, the number of processors between
+     * 2 and 4.
+     *
+     * @param size the number of reader threads
+     */
+    public static void setReaderPoolSize(int size){
+        if (size < 1){
+            throw new IllegalArgumentException("size must be greater than 0");
+        }
+        synchronized (DATABASE_EXECUTORS_LOCK){
+            if (readerExecutor != null){
+                if (size > readerExecutor.getMaximumPoolSize()){
+                    readerExecutor.setMaximumPoolSize(size);
+                    readerExecutor.setCorePoolSize(size);
+                }else {
+                    readerExecutor.setCorePoolSize(size);
+                    readerExecutor.setMaximumPoolSize(size);
+                }
+            }
+            readerPoolSize = size;
+        }
+    }
+
+    /**
+     *
+     * @return the number of threads running the queries
+     */
+    public static int getReaderPoolSize(){
+        synchronized (DATABASE_EXECUTORS_LOCK){
+            return readerPoolSize;
+        }
+    }
     /**
      * Long running operations should NOT be put onto SCHEDULED_EXECUTOR.
      *
@@ -37,10 +146,86 @@ public class EquilibreExecutors {
     }
 
     /**
+     * Shared with every user of Bolts in the application, the database work runs on {@link #writer()}
+     * and {@link #reader()} instead.
      *
      * @return BACKGROUND_EXECUTOR
      */
     public static Executor io(){
         return Task.BACKGROUND_EXECUTOR;
     }
+
+    /**
+     * Submits the work to a pool with a priority.
+     */
+    private static class PriorityExecutor implements Executor {
+        private final ThreadPoolExecutor pool;
+        private final EquilibrePriority priority;
+
+        private PriorityExecutor(ThreadPoolExecutor pool, EquilibrePriority priority) {
+            this.pool = pool;
+            this.priority = priority;
+        }
+
+        static PriorityExecutor[] of(ThreadPoolExecutor pool){
+            EquilibrePriority[] priorities = EquilibrePriority.values();
+            PriorityExecutor[] executors = new PriorityExecutor[priorities.length];
+            for (int i = 0; i < priorities.length; i++){
+                executors[i] = new PriorityExecutor(pool, priorities[i]);
+            }
+            return executors;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            pool.execute(new PrioritizedRunnable(runnable, priority, sequence.getAndIncrement()));
+        }
+    }
+
+    /**
+     * The work waiting in the queue of a pool, ordered by priority then by submission.
+     */
+    private static class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+        private final Runnable runnable;
+        private final int priority;
+        private final long order;
+
+        PrioritizedRunnable(Runnable runnable, EquilibrePriority priority, long order) {
+            this.runnable = runnable;
+            this.priority = priority.ordinal();
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedRunnable other) {
+            if (priority != other.priority){
+                return priority < other.priority ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the writer and of the readers, with a name to find them in traces.
+     */
+    private static class DatabaseThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DatabaseThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package io.github.angebagui.equilibre;
+
+import java.util.List;
+
+/**
+ * <p>
+ * An {@code EquilibreGroupedResult} holds the result of an aggregate computed per group by
+ * {@link EquilibreQuery#aggregateByGroup(EquilibreQuery.Aggregate, String)}: one row per group, with the
+ * values of the grouped columns and the aggregate as a primitive {@code double}.
+ * </p>
+ * <pre>
+ * EquilibreGroupedResult totals = EquilibreQuery.getQuery(Order.class)
+ *         .groupBy("customer")
+ *         .aggregateByGroup(EquilibreQuery.Aggregate.SUM, "amount");
+ * for (int i = 0; i &lt; totals.size(); i++) {
+ *     show(totals.getKey(i), totals.getValue(i));
+ * }
+ * </pre>
+ */
+public class EquilibreGroupedResult {
+
+    private final Object[][] keys;
+    private final double[] values;
+
+    /**
+     * @param rows the rows mapped by {@link PreparedQueries.AggregateRowMapper}
+     * @param whenNull the value of the groups whose aggregate is {@code NULL}
+     */
+    EquilibreGroupedResult(List<Object[]> rows, double whenNull) {
+        int size = rows.size();
+        keys = new Object[size][];
+        values = new double[size];
+        for (int i = 0; i < size; i++){
+            Object[] row = rows.get(i);
+            Object value = row[row.length - 1];
+            keys[i] = new Object[row.length - 1];
+            System.arraycopy(row, 0, keys[i], 0, keys[i].length);
+            values[i] = value == null ? whenNull : (Double) value;
+        }
+    }
+
+    /**
+     *
+     * @return the number of groups
+     */
+    public int size(){
+        return values.length;
+    }
+
+    /**
+     *
+     * @param index the index of the group
+     * @return the value of the first grouped column for the group
+     */
+    public Object getKey(int index){
+        return keys[index][0];
+    }
+
+    /**
+     *
+     * @param index the index of the group
+     * @return the values of the grouped columns for the group, in the order given to {@code groupBy}
+     */
+    public Object[] getKeys(int index){
+        return keys[index];
+    }
+
+    /**
+     *
+     * @param index the index of the group
+     * @return the aggregate of the group
+     */
+    public double getValue(int index){
+        return values[index];
+    }
+}
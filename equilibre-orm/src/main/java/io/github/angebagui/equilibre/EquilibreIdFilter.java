@@ -0,0 +1,262 @@
+package io.github.angebagui.equilibre;
+
+import android.util.Log;
+
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.stmt.GenericRowMapper;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.DatabaseResults;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import bolts.Task;
+
+/**
+ * <p>
+ * The {@code EquilibreIdFilter} class keeps an optional in-memory Bloom filter over the ids of a table.
+ * Once it is enabled for a class, {@link EquilibreQuery#existsById(Object)} answers {@code false}
+ * without querying the database for most of the ids that were never saved, which makes the
+ * de-duplication of large imports much cheaper.
+ * </p>
+ * <p>
+ * The filter is seeded with the ids already in the table, then every object saved through Equilibre
+ * is added to it. It never answers {@code false} for a saved id; deleted ids stay in the filter and
+ * only cost a query. Rows inserted without Equilibre, for example with raw SQL, are not seen: call
+ * {@link #enable(Class, int, double)} again to rebuild the filter.
+ * </p>
+ * <pre>
+ * EquilibreIdFilter.enable(Message.class, 1000000, 0.01);
+ * ...
+ * if (!query.existsById(remoteId)) {
+ *     query.save(message);
+ * }
+ * </pre>
+ */
+public class EquilibreIdFilter {
+
+    /**
+     * The filters in use, by registered class.
+     */
+    private static final Map<Class<?>, BloomFilter> filters = new ConcurrentHashMap<Class<?>, BloomFilter>();
+
+    /**
+     * The filters being seeded, which already receive the saved ids but do not answer yet.
+     */
+    private static final Map<Class<?>, BloomFilter> seeding = new ConcurrentHashMap<Class<?>, BloomFilter>();
+
+    private EquilibreIdFilter(){
+
+    }
+
+    /**
+     * Enables the filter for the class and seeds it with the ids of the table in a background thread.
+     * The filter answers once it is seeded; until then every check queries the database.
+     *
+     * @param subclass the {@link EquilibreObject} subclass
+     * @param expectedIds the number of ids the table is expected to hold, which sizes the filter
+     * @param falsePositiveRate the expected rate of ids that are not in the table but still queried,
+     *                          between 0 and 1
+     * @return A {@link Task} that is resolved when the filter is seeded.
+     */
+    public static Task<Void> enable(final Class<? extends EquilibreObject> subclass, int expectedIds,
+                                    double falsePositiveRate){
+        if (expectedIds < 1){
+            throw new IllegalArgumentException("expectedIds must be greater than 0");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1){
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        }
+        final Class<? extends EquilibreObject> registered = EquilibreObject.getRegisteredClass(subclass);
+        final BloomFilter filter = startSeeding(registered, expectedIds, falsePositiveRate);
+        return Task.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                boolean seeded = false;
+                try {
+                    long count = seed(registered, filter);
+                    seeded = true;
+                    Log.d(Equilibre.TAG, registered.getSimpleName() + " id filter seeded with " + count + " ids");
+                    return null;
+                } finally {
+                    finishSeeding(registered, filter, seeded);
+                }
+            }
+        }, EquilibreExecutors.reader());
+    }
+
+    /**
+     * Creates the filter of the class, which receives the saved ids while it is seeded.
+     */
+    /* package */ static BloomFilter startSeeding(Class<? extends EquilibreObject> registered, int expectedIds,
+                                                  double falsePositiveRate){
+        BloomFilter filter = new BloomFilter(expectedIds, falsePositiveRate);
+        seeding.put(registered, filter);
+        return filter;
+    }
+
+    /**
+     * Makes the filter answer the checks once seeded, unless it was replaced or disabled meanwhile.
+     */
+    /* package */ static void finishSeeding(Class<? extends EquilibreObject> registered, BloomFilter filter,
+                                            boolean seeded){
+        if (seeding.get(registered) == filter){
+            if (seeded){
+                filters.put(registered, filter);
+            }
+            seeding.remove(registered);
+        }
+    }
+
+    /**
+     * Disables the filter for the class.
+     *
+     * @param subclass the {@link EquilibreObject} subclass
+     */
+    public static void disable(Class<? extends EquilibreObject> subclass){
+        Class<? extends EquilibreObject> registered = EquilibreObject.getRegisteredClass(subclass);
+        seeding.remove(registered);
+        filters.remove(registered);
+    }
+
+    /**
+     *
+     * @param subclass the {@link EquilibreObject} subclass
+     * @return {@code true} if the filter of the class is seeded and answers the checks
+     */
+    public static boolean isEnabled(Class<? extends EquilibreObject> subclass){
+        return filters.containsKey(EquilibreObject.getRegisteredClass(subclass));
+    }
+
+    /**
+     * Adds the id of a saved object to the filter of its class, if any.
+     */
+    /* package */ static void add(EquilibreObject object){
+        if (filters.isEmpty() && seeding.isEmpty()){
+            return;
+        }
+        Object id = object.getEquilibreId();
+        if (id == null){
+            return;
+        }
+        Class<? extends EquilibreObject> registered = EquilibreObject.getRegisteredClass(object.getClass());
+        BloomFilter filter = filters.get(registered);
+        if (filter != null){
+            filter.put(id);
+        }
+        filter = seeding.get(registered);
+        if (filter != null){
+            filter.put(id);
+        }
+    }
+
+    /**
+     *
+     * @return {@code false} if the id is certainly not in the table, {@code true} if it may be, or if
+     * there is no filter for the class
+     */
+    /* package */ static boolean mightContain(Class<? extends EquilibreObject> subclass, Object id){
+        if (filters.isEmpty()){
+            return true;
+        }
+        BloomFilter filter = filters.get(EquilibreObject.getRegisteredClass(subclass));
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * Reads every id of the table into the filter, one row at a time.
+     *
+     * @return the number of ids read
+     */
+    private static long seed(Class<? extends EquilibreObject> subclass, final BloomFilter filter) throws SQLException {
+        EquilibreOpenHelper helper = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext());
+        Dao dao = helper.getDao(subclass);
+        final FieldType idField = ((BaseDaoImpl<?, ?>) dao).getTableInfo().getIdField();
+        if (idField == null){
+            throw new IllegalArgumentException(subclass.getSimpleName() + " has no id field");
+        }
+        QueryBuilder<?, ?> builder = dao.queryBuilder();
+        builder.selectColumns(idField.getColumnName());
+        final Map<String, Integer> columnPositions = new HashMap<String, Integer>();
+        final long[] count = new long[1];
+        PreparedQueries.forEach(dao.getConnectionSource(), builder.prepare(), StatementType.SELECT,
+                new GenericRowMapper<Void>() {
+            @Override
+            public Void mapRow(DatabaseResults results) throws SQLException {
+                Object id = idField.resultToJava(results, columnPositions);
+                if (id != null){
+                    filter.put(id);
+                    count[0]++;
+                }
+                return null;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * A Bloom filter whose bits can be set from several threads.
+     */
+    /* package */ static class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+
+        BloomFilter(int expected, double falsePositiveRate) {
+            long size = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            size = Math.max(64, size);
+            bits = new AtomicLongArray((int) ((size + 63) / 64));
+            bitCount = bits.length() * 64L;
+            hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+        }
+
+        void put(Object id){
+            int hash1 = mix(id.hashCode());
+            int hash2 = mix(hash1 ^ 0x9E3779B9);
+            for (int i = 0; i < hashCount; i++){
+                long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                do {
+                    word = bits.get(index);
+                    if ((word & mask) != 0){
+                        break;
+                    }
+                } while (!bits.compareAndSet(index, word, word | mask));
+            }
+        }
+
+        boolean mightContain(Object id){
+            int hash1 = mix(id.hashCode());
+            int hash2 = mix(hash1 ^ 0x9E3779B9);
+            for (int i = 0; i < hashCount; i++){
+                long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Spreads the bits of the hash code, so that sequential ids do not set neighbouring bits.
+         */
+        private static int mix(int hash){
+            hash ^= hash >>> 16;
+            hash *= 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            hash *= 0xC2B2AE35;
+            hash ^= hash >>> 16;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.github.angebagui.equilibre;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * <p>
+ * The {@code EquilibreLoader} class is an opt-in coalescing loader for the lookups by id. Once it is
+ * enabled, {@link EquilibreQuery#getInBackground(Object, GetCallback)} no longer runs one query per
+ * call: the ids asked within {@code windowMillis} are collected, then loaded with one
+ * {@link EquilibreQuery#getAll(java.util.Collection)} per class, and each {@link GetCallback} gets its
+ * own object. An id asked several times in the window is read once.
+ * </p>
+ * <pre>
+ * EquilibreLoader.enable(16, 500);
+ * ...
+ * // Both lookups are answered by the same query
+ * userQuery.getInBackground(authorId, authorCallback);
+ * EquilibreQuery.getQuery(User.class).getInBackground(editorId, editorCallback);
+ * </pre>
+ */
+public class EquilibreLoader {
+
+    private static final Object LOCK = new Object();
+
+    private static boolean enabled = false;
+    private static long windowMillis;
+    private static int maxIds;
+
+    /**
+     * The lookups waiting for the dispatch: by class, the callbacks waiting for each id.
+     */
+    private static Map<Class<? extends EquilibreObject>, Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>>> pending =
+            new LinkedHashMap<Class<? extends EquilibreObject>, Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>>>();
+    private static int pendingIds = 0;
+    private static ScheduledFuture<?> scheduledDispatch;
+
+    private EquilibreLoader(){
+
+    }
+
+    /**
+     * Enables the coalescing of the lookups by id.
+     *
+     * @param windowMillis the maximum time a lookup waits for others before being dispatched
+     * @param maxIds the number of distinct pending ids that triggers a dispatch right away
+     */
+    public static void enable(long windowMillis, int maxIds){
+        if (windowMillis < 0){
+            throw new IllegalArgumentException("windowMillis must be positive");
+        }
+        if (maxIds < 1){
+            throw new IllegalArgumentException("maxIds must be greater than 0");
+        }
+        synchronized (LOCK){
+            EquilibreLoader.windowMillis = windowMillis;
+            EquilibreLoader.maxIds = maxIds;
+            enabled = true;
+        }
+    }
+
+    /**
+     * Disables the coalescing. The pending lookups are dispatched right away.
+     */
+    public static void disable(){
+        synchronized (LOCK){
+            enabled = false;
+        }
+        dispatch();
+    }
+
+    /**
+     *
+     * @return {@code true} if the lookups by id are coalesced
+     */
+    public static boolean isEnabled(){
+        synchronized (LOCK){
+            return enabled;
+        }
+    }
+
+    /**
+     * Dispatches the pending lookups now, without waiting for the end of the window.
+     */
+    public static void dispatch(){
+        final Map<Class<? extends EquilibreObject>, Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>>> batch;
+        synchronized (LOCK){
+            batch = pending;
+            pending = new LinkedHashMap<Class<? extends EquilibreObject>, Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>>>();
+            pendingIds = 0;
+            if (scheduledDispatch != null){
+                scheduledDispatch.cancel(false);
+                scheduledDispatch = null;
+            }
+        }
+        for (Map.Entry<Class<? extends EquilibreObject>, Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>>> entry : batch.entrySet()){
+            load(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /* package */ static <T extends EquilibreObject> Task<T> get(Class<T> subclass, Object id){
+        Task<EquilibreObject>.TaskCompletionSource tcs = Task.create();
+        boolean dispatchNow = false;
+        synchronized (LOCK){
+            Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>> ids = pending.get(subclass);
+            if (ids == null){
+                ids = new LinkedHashMap<Object, List<Task<EquilibreObject>.TaskCompletionSource>>();
+                pending.put(subclass, ids);
+            }
+            List<Task<EquilibreObject>.TaskCompletionSource> waiting = ids.get(id);
+            if (waiting == null){
+                waiting = new ArrayList<Task<EquilibreObject>.TaskCompletionSource>(1);
+                ids.put(id, waiting);
+                pendingIds++;
+            }
+            waiting.add(tcs);
+            if (pendingIds >= maxIds){
+                dispatchNow = true;
+            }else if (scheduledDispatch == null){
+                scheduledDispatch = EquilibreExecutors.scheduled().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch();
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (dispatchNow){
+            dispatch();
+        }
+        return (Task<T>) tcs.getTask();
+    }
+
+    /**
+     * Loads the ids of one class with a single {@link EquilibreQuery#getAll(java.util.Collection)} and
+     * resolves the lookups waiting for them.
+     */
+    private static void load(final Class<? extends EquilibreObject> subclass,
+                             final Map<Object, List<Task<EquilibreObject>.TaskCompletionSource>> ids){
+        EquilibreQuery<EquilibreObject, Object> query = EquilibreQuery.getQuery((Class<EquilibreObject>) subclass);
+        query.getAllInBackground(ids.keySet()).continueWith(new Continuation<Map<Object, EquilibreObject>, Void>() {
+            @Override
+            public Void then(Task<Map<Object, EquilibreObject>> task) throws Exception {
+                if (task.isFaulted() || task.isCancelled()){
+                    Exception error = task.isFaulted() ? task.getError()
+                            : new CancellationException("The lookup was cancelled");
+                    Log.e(Equilibre.TAG, " echec when loading " + ids.size() + " " + subclass.getSimpleName(), error);
+                    for (List<Task<EquilibreObject>.TaskCompletionSource> waiting : ids.values()){
+                        for (Task<EquilibreObject>.TaskCompletionSource tcs : waiting){
+                            tcs.setError(error);
+                        }
+                    }
+                    return null;
+                }
+                Map<Object, EquilibreObject> found = task.getResult();
+                for (Map.Entry<Object, List<Task<EquilibreObject>.TaskCompletionSource>> entry : ids.entrySet()){
+                    EquilibreObject object = found.get(entry.getKey());
+                    for (Task<EquilibreObject>.TaskCompletionSource tcs : entry.getValue()){
+                        tcs.setResult(object);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+}
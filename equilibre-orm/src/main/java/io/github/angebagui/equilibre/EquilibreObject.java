@@ -1,16 +1,23 @@
 package io.github.angebagui.equilibre;
 
+import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.field.DatabaseField;
 
 import java.lang.reflect.Member;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
+import bolts.Continuation;
 import bolts.Task;
 
 /**
@@ -213,6 +220,39 @@ public abstract class EquilibreObject<T>  {
         query.refresh(this);
     }
 
+    /**
+     * Inserts the object in the local datastore, or updates it if it already exists, with callback
+     * as a container of the response
+     *
+     * @param callback the callback for asynchronous execution
+     * @param <T> the EquilibreObject's subclass
+     */
+    public <T extends EquilibreObject> void upsertAsync(final SaveCallback callback){
+        EquilibreQuery query = EquilibreQuery.getQuery(this.getClass());
+        query.upsertAllInBackground(Collections.singletonList(this), callback == null ? null : new UpsertCallback() {
+            @Override
+            public void done(UpsertResult result, EquilibreException e) {
+                callback.done(e);
+            }
+        });
+    }
+
+    /**
+     * Inserts the object in the local datastore, or updates it if it already exists, without response.
+     *
+     * @param <T> the EquilibreObject's subclass
+     * @throws EquilibreException an exception
+     */
+    public <T extends EquilibreObject> void upsert() throws EquilibreException {
+        EquilibreQuery query = EquilibreQuery.getQuery(this.getClass());
+        query.upsertAll(Collections.singletonList(this));
+    }
+
+    /**
+     * The number of objects written per transaction by {@link #saveAllInBackground(List)}.
+     */
+    public static final int DEFAULT_SAVE_ALL_CHUNK_SIZE = 500;
+
     /**
      * Saves each object in the provided list. This is faster than saving each object individually
      * because it batches the requests.
@@ -241,6 +281,28 @@ public abstract class EquilibreObject<T>  {
         EquilibreTaskUtils.callbackOnMainThreadAsync(saveAllInBackground(objects), callback);
     }
 
+    /**
+     * Saves each object in the provided list in a background thread, reporting the progress after
+     * each chunk has been committed.
+     *
+     * @param objects
+     *          The objects to save.
+     * @param chunkSize
+     *          The number of objects written per transaction. A value lower than {@code 1} saves
+     *          the whole list in a single transaction.
+     * @param progressCallback
+     *          {@code progressCallback.done(percent)} is called on the main thread after each chunk.
+     * @param callback
+     *          {@code callback.done(e)} is called when the save completes.
+     *
+     * @param <T> the EquilibreObject's subclass
+     */
+    public static <T extends EquilibreObject> void saveAllInBackground(List<T> objects, int chunkSize,
+                                                                        ProgressCallback progressCallback,
+                                                                        SaveCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(saveAllInBackground(objects, chunkSize, progressCallback), callback);
+    }
+
     /**
      * Saves each object in the provided list to the server in a background thread. This is preferable
      * to using saveAll, unless your code is already running from a background thread.
@@ -252,18 +314,191 @@ public abstract class EquilibreObject<T>  {
      * @return A task that is resolved when saveAll completes.
      */
     public static <T extends EquilibreObject> Task<Void> saveAllInBackground(final List<T> objects) {
+        return saveAllInBackground(objects, DEFAULT_SAVE_ALL_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Saves each object in the provided list in a background thread, at the
+     * {@link EquilibrePriority#BULK} priority. See
+     * {@link #saveAllInBackground(List, int, ProgressCallback, EquilibrePriority)}.
+     *
+     * @param objects
+     *          The objects to save.
+     * @param chunkSize
+     *          The number of objects written per transaction. A value lower than {@code 1} saves
+     *          the whole list in a single transaction.
+     * @param progressCallback
+     *          {@code progressCallback.done(percent)} is called on the main thread after each chunk,
+     *          can be {@code null}.
+     * @param <T> the EquilibreObject's subclass
+     *
+     * @return A task that is resolved when saveAll completes.
+     */
+    public static <T extends EquilibreObject> Task<Void> saveAllInBackground(final List<T> objects, final int chunkSize,
+                                                                           final ProgressCallback progressCallback) {
+        return saveAllInBackground(objects, chunkSize, progressCallback, EquilibrePriority.BULK);
+    }
 
-        return Task.callInBackground(new Callable<Void>() {
+    /**
+     * Saves each object in the provided list in a background thread. The list is split in chunks of
+     * {@code chunkSize} objects and every chunk is written inside its own transaction, so the
+     * database journal is synced once per chunk instead of once per object.
+     * <p>
+     * The list can mix several {@code EquilibreObject} subclasses: objects are grouped by their
+     * registered subclass, each {@link Dao} is resolved once and the objects of a same table are
+     * written one after the other so they reuse the same insert statement.
+     * </p>
+     * <p>
+     * Every chunk is a separate task of the writer executor, at the given priority, enqueued in the
+     * write queues of its tables when this method is called: the priority only orders the chunks among
+     * the other writes ready to run, the writes to the same tables enqueued after saveAll still run
+     * after it. The saves and deletes buffered by {@link EquilibreWriteBehind} are committed first.
+     * </p>
+     *
+     * @param objects
+     *          The objects to save.
+     * @param chunkSize
+     *          The number of objects written per transaction. A value lower than {@code 1} saves
+     *          the whole list in a single transaction.
+     * @param progressCallback
+     *          {@code progressCallback.done(percent)} is called on the main thread after each chunk,
+     *          can be {@code null}.
+     * @param priority
+     *          The priority of the writes on {@link EquilibreExecutors#writer(EquilibrePriority)}.
+     * @param <T> the EquilibreObject's subclass
+     *
+     * @return A task that is resolved when saveAll completes.
+     */
+    public static <T extends EquilibreObject> Task<Void> saveAllInBackground(final List<T> objects, final int chunkSize,
+                                                                           final ProgressCallback progressCallback,
+                                                                           final EquilibrePriority priority) {
+
+        if (objects.isEmpty()){
+            notifyProgress(progressCallback, 100);
+            return Task.forResult(null);
+        }
+        final List<EquilibreObject> ordered = new ArrayList<EquilibreObject>(objects.size());
+        for (List<EquilibreObject> group : groupByRegisteredClass(objects).values()){
+            ordered.addAll(group);
+        }
+
+        // The buffered saves and deletes are committed first, whatever their outcome
+        Task<Void> chunks = EquilibreWriteBehind.flushInBackground().continueWith(new Continuation<Void, Void>() {
             @Override
-            public Void call() throws Exception {
-                EquilibreQuery query = EquilibreQuery.getQuery(objects.get(0).getClass());
-                for (EquilibreObject object: objects){
-                    query.getDao().create(object);
+            public Void then(Task<Void> task) throws Exception {
+                return null;
+            }
+        });
+        final int total = ordered.size();
+        final int step = chunkSize > 0 ? chunkSize : total;
+        for (int start = 0; start < total; start += step){
+            final List<EquilibreObject> chunk = ordered.subList(start, Math.min(start + step, total));
+            final int to = start + chunk.size();
+            final Task<Void> previous = chunks;
+            // Every chunk takes its turn in the write queues of its tables now, so the writes enqueued
+            // after saveAll never overtake it, whatever their priority
+            Set<TaskQueue> queues = new LinkedHashSet<TaskQueue>();
+            for (EquilibreObject object : chunk){
+                queues.add(TaskQueue.forTable(object.getClass()));
+            }
+            chunks = TaskQueue.enqueue(new ArrayList<TaskQueue>(queues), new Continuation<Void, Task<Void>>() {
+                @Override
+                public Task<Void> then(Task<Void> toAwait) throws Exception {
+                    return toAwait.continueWithTask(new Continuation<Void, Task<Void>>() {
+                        @Override
+                        public Task<Void> then(Task<Void> task) throws Exception {
+                            return previous;
+                        }
+                    }).onSuccess(new Continuation<Void, Void>() {
+                        @Override
+                        public Void then(Task<Void> task) throws Exception {
+                            saveChunk(chunk);
+                            notifyProgress(progressCallback, (int) (to * 100L / total));
+                            return null;
+                        }
+                    }, EquilibreExecutors.writer(priority));
+                }
+            });
+        }
+        return chunks;
+    }
 
+    /**
+     * Writes the chunk of objects, grouped by table, inside one transaction.
+     */
+    private static void saveChunk(final List<EquilibreObject> chunk) throws Exception {
+        final EquilibreOpenHelper helper = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext());
+        helper.callInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Class<? extends EquilibreObject> subclass = null;
+                Dao dao = null;
+                for (EquilibreObject object : chunk){
+                    // The objects of a table follow each other, its DAO is resolved once
+                    if (getRegisteredClass(object.getClass()) != subclass){
+                        subclass = getRegisteredClass(object.getClass());
+                        dao = helper.getDao(subclass);
+                    }
+                    dao.create(object);
+                    EquilibreIdFilter.add(object);
                 }
                 return null;
             }
         });
+        // Published once committed: one version per table, and the sessions only see saved rows
+        Set<Class<? extends EquilibreObject>> tables = new LinkedHashSet<Class<? extends EquilibreObject>>();
+        for (EquilibreObject object : chunk){
+            EquilibreSession.onSaved(object);
+            tables.add(getRegisteredClass(object.getClass()));
+        }
+        for (Class<? extends EquilibreObject> table : tables){
+            TableVersions.bump(table);
+        }
+    }
+
+    /**
+     * Groups the objects by the subclass registered through {@link #registerSubclass(Class)},
+     * keeping the order in which each subclass first appears. Objects of a subclass that was not
+     * registered are grouped by their own class.
+     */
+    /* package */ static Map<Class<? extends EquilibreObject>, List<EquilibreObject>> groupByRegisteredClass(
+            Collection<? extends EquilibreObject> objects){
+        Map<Class<? extends EquilibreObject>, List<EquilibreObject>> groups =
+                new LinkedHashMap<Class<? extends EquilibreObject>, List<EquilibreObject>>();
+        for (EquilibreObject object : objects){
+            Class<? extends EquilibreObject> subclass = getRegisteredClass(object.getClass());
+            List<EquilibreObject> group = groups.get(subclass);
+            if (group == null){
+                group = new ArrayList<EquilibreObject>();
+                groups.put(subclass, group);
+            }
+            group.add(object);
+        }
+        return groups;
+    }
+
+    /* package */ static Class<? extends EquilibreObject> getRegisteredClass(Class<? extends EquilibreObject> subclass){
+        String className = getClassName(subclass);
+        if (className == null){
+            return subclass;
+        }
+        Class<? extends EquilibreObject> registered = objectTypes.get(className);
+        if (registered != null && registered.isAssignableFrom(subclass)){
+            return registered;
+        }
+        return subclass;
+    }
+
+    private static void notifyProgress(final ProgressCallback progressCallback, final int percentDone){
+        if (progressCallback == null){
+            return;
+        }
+        EquilibreExecutors.main().execute(new Runnable() {
+            @Override
+            public void run() {
+                progressCallback.done(percentDone);
+            }
+        });
     }
 
 
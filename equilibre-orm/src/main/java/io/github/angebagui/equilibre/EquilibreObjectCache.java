@@ -0,0 +1,213 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.ObjectCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The {@code EquilibreObjectCache} is the second-level cache of the classes annotated with
+ * {@link EquilibreCached}. It is installed on their DAO by {@link EquilibreOpenHelper#getDao(Class)},
+ * so the DAO answers the lookups by id of cached objects without querying the database, and returns
+ * the cached instance for the rows read by the other queries.
+ * </p>
+ * <p>
+ * Each class keeps at most {@link EquilibreCached#maxEntries()} objects, the least recently used is
+ * evicted first. The saves, updates and deletes of objects update the cache; the set-based updates
+ * and deletes of {@link EquilibreQuery} clear the cache of the class. The cached instances are shared:
+ * an object modified without being saved is seen modified by the next readers.
+ * </p>
+ */
+public class EquilibreObjectCache implements ObjectCache {
+
+    /* package */ static final EquilibreObjectCache INSTANCE = new EquilibreObjectCache();
+
+    private final Map<Class<?>, ClassCache> caches = new ConcurrentHashMap<Class<?>, ClassCache>();
+
+    private EquilibreObjectCache(){
+
+    }
+
+    /**
+     *
+     * @param subclass a class annotated with {@link EquilibreCached}
+     * @return the number of lookups answered by the cache
+     */
+    public static long getHitCount(Class<? extends EquilibreObject> subclass){
+        ClassCache cache = INSTANCE.caches.get(subclass);
+        return cache == null ? 0 : cache.hits.get();
+    }
+
+    /**
+     *
+     * @param subclass a class annotated with {@link EquilibreCached}
+     * @return the number of lookups that were not in the cache
+     */
+    public static long getMissCount(Class<? extends EquilibreObject> subclass){
+        ClassCache cache = INSTANCE.caches.get(subclass);
+        return cache == null ? 0 : cache.misses.get();
+    }
+
+    /**
+     *
+     * @param subclass a class annotated with {@link EquilibreCached}
+     * @return the number of objects evicted to stay under {@link EquilibreCached#maxEntries()}
+     */
+    public static long getEvictionCount(Class<? extends EquilibreObject> subclass){
+        ClassCache cache = INSTANCE.caches.get(subclass);
+        return cache == null ? 0 : cache.evictions.get();
+    }
+
+    /**
+     * Removes every cached object of every class. The statistics are kept.
+     */
+    public static void invalidateAll(){
+        INSTANCE.clearAll();
+    }
+
+    /**
+     * Removes every cached object of the class, for example after it was modified with raw SQL.
+     *
+     * @param subclass a class annotated with {@link EquilibreCached}
+     */
+    public static void invalidate(Class<? extends EquilibreObject> subclass){
+        INSTANCE.clear(subclass);
+    }
+
+    /**
+     *
+     * @param subclass a registered class
+     * @return {@code true} if the class is annotated with {@link EquilibreCached}
+     */
+    /* package */ static boolean isCached(Class<?> subclass){
+        return subclass.getAnnotation(EquilibreCached.class) != null;
+    }
+
+    @Override
+    public <T> void registerClass(Class<T> clazz) {
+        if (!caches.containsKey(clazz)){
+            synchronized (caches){
+                if (!caches.containsKey(clazz)){
+                    EquilibreCached cached = clazz.getAnnotation(EquilibreCached.class);
+                    caches.put(clazz, new ClassCache(cached == null ? 1000 : cached.maxEntries()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T, ID> T get(Class<T> clazz, ID id) {
+        ClassCache cache = caches.get(clazz);
+        if (cache == null){
+            return null;
+        }
+        Object object;
+        synchronized (cache){
+            object = cache.objects.get(id);
+        }
+        if (object == null){
+            cache.misses.incrementAndGet();
+        }else {
+            cache.hits.incrementAndGet();
+        }
+        return (T) object;
+    }
+
+    @Override
+    public <T, ID> void put(Class<T> clazz, ID id, T data) {
+        ClassCache cache = caches.get(clazz);
+        if (cache != null){
+            synchronized (cache){
+                cache.objects.put(id, data);
+            }
+        }
+    }
+
+    @Override
+    public <T, ID> void remove(Class<T> clazz, ID id) {
+        ClassCache cache = caches.get(clazz);
+        if (cache != null){
+            synchronized (cache){
+                cache.objects.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public <T, ID> T updateId(Class<T> clazz, ID oldId, ID newId) {
+        ClassCache cache = caches.get(clazz);
+        if (cache == null){
+            return null;
+        }
+        synchronized (cache){
+            Object object = cache.objects.remove(oldId);
+            if (object != null){
+                cache.objects.put(newId, object);
+            }
+            return (T) object;
+        }
+    }
+
+    @Override
+    public <T> void clear(Class<T> clazz) {
+        ClassCache cache = caches.get(clazz);
+        if (cache != null){
+            synchronized (cache){
+                cache.objects.clear();
+            }
+        }
+    }
+
+    @Override
+    public void clearAll() {
+        for (Class<?> clazz : caches.keySet()){
+            clear(clazz);
+        }
+    }
+
+    @Override
+    public <T> int size(Class<T> clazz) {
+        ClassCache cache = caches.get(clazz);
+        if (cache == null){
+            return 0;
+        }
+        synchronized (cache){
+            return cache.objects.size();
+        }
+    }
+
+    @Override
+    public int sizeAll() {
+        int size = 0;
+        for (Class<?> clazz : caches.keySet()){
+            size += size(clazz);
+        }
+        return size;
+    }
+
+    /**
+     * The objects of one class, in access order, with their statistics.
+     */
+    private static class ClassCache {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final LinkedHashMap<Object, Object> objects;
+
+        ClassCache(final int maxEntries) {
+            objects = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                    if (size() > maxEntries){
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
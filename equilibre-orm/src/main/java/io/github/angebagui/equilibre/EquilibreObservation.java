@@ -0,0 +1,175 @@
+package io.github.angebagui.equilibre;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * <p>
+ * An {@code EquilibreObservation} is a live query returned by
+ * {@link EquilibreQuery#observe(FindCallback)}. Its {@link FindCallback} gets the objects of the query
+ * once, then again each time a save, update or delete made through Equilibre is committed to one of
+ * the observed tables. The query runs in a background thread and the callback runs on the main thread.
+ * {@link EquilibreQuery#observeChanges(ChangeSetCallback)} delivers the changes between the results
+ * instead, as {@link EquilibreChangeSet}s.
+ * </p>
+ * <p>
+ * The writes committed within {@code debounceMillis} of the first one are coalesced into a single run,
+ * and a write committed while the query runs makes it run once more when it completes. Cancel the
+ * observation when the results are no longer needed, for example when the screen is destroyed.
+ * </p>
+ * <pre>
+ * final EquilibreObservation&lt;Message&gt; messages = EquilibreQuery.getQuery(Message.class)
+ *         .whereEqualTo("conversation", conversationId).orderByDescending("date")
+ *         .observe(new FindCallback&lt;Message&gt;() {
+ *             public void done(List&lt;Message&gt; objects, EquilibreException e) {
+ *                 adapter.setMessages(objects);
+ *             }
+ *         });
+ * ...
+ * messages.cancel();
+ * </pre>
+ *
+ * @param <T> the EquilibreObject's subclass
+ */
+public class EquilibreObservation<T extends EquilibreObject> {
+
+    /**
+     * The default time during which the writes are coalesced, in milliseconds.
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    private static final List<EquilibreObservation<?>> observations = new CopyOnWriteArrayList<EquilibreObservation<?>>();
+
+    private final Set<Class<?>> tables;
+    private final Callable<Object> read;
+    private final EquilibreCallback2<Object, EquilibreException> callback;
+    private final long debounceMillis;
+    private final Executor executor;
+
+    private boolean cancelled = false;
+    private boolean running = false;
+    private boolean changed = false;
+    private ScheduledFuture<?> scheduledRun;
+
+    /**
+     * @param tables the registered classes of the observed tables
+     * @param read the read run after the writes, in a background thread
+     * @param callback receives the result of each read on the main thread
+     * @param debounceMillis the time during which the writes are coalesced into a single run
+     * @param executor the executor of the read
+     */
+    /* package */ <R> EquilibreObservation(Set<Class<?>> tables, Callable<R> read,
+                                           EquilibreCallback2<R, EquilibreException> callback, long debounceMillis,
+                                           Executor executor){
+        this.tables = tables;
+        this.read = (Callable<Object>) read;
+        this.callback = (EquilibreCallback2<Object, EquilibreException>) callback;
+        this.debounceMillis = debounceMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * Registers the observation and runs the query a first time.
+     */
+    /* package */ EquilibreObservation<T> start(){
+        observations.add(this);
+        synchronized (this){
+            running = true;
+        }
+        run();
+        return this;
+    }
+
+    /**
+     * Stops the observation: the callback is no longer called, even for a run already started.
+     */
+    public void cancel(){
+        observations.remove(this);
+        synchronized (this){
+            cancelled = true;
+            if (scheduledRun != null){
+                scheduledRun.cancel(false);
+                scheduledRun = null;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return {@code true} if the observation was cancelled
+     */
+    public synchronized boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Schedules a run of the observations of the table, after a write to it was committed.
+     */
+    /* package */ static void onTableChanged(Class<?> registered){
+        if (observations.isEmpty()){
+            return;
+        }
+        for (EquilibreObservation<?> observation : observations){
+            if (observation.tables.contains(registered)){
+                observation.schedule();
+            }
+        }
+    }
+
+    private synchronized void schedule(){
+        if (cancelled || scheduledRun != null){
+            return;
+        }
+        if (running){
+            changed = true;
+            return;
+        }
+        scheduledRun = EquilibreExecutors.scheduled().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EquilibreObservation.this){
+                    scheduledRun = null;
+                    if (cancelled){
+                        return;
+                    }
+                    running = true;
+                }
+                EquilibreObservation.this.run();
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(){
+        Task<Object> task = Task.call(read, executor);
+        EquilibreTaskUtils.callbackOnMainThreadAsync(task, new EquilibreCallback2<Object, EquilibreException>() {
+            @Override
+            public void done(Object result, EquilibreException e) {
+                if (!isCancelled()){
+                    callback.done(result, e);
+                }
+            }
+        }).continueWith(new Continuation<Object, Void>() {
+            @Override
+            public Void then(Task<Object> task) throws Exception {
+                boolean again;
+                synchronized (EquilibreObservation.this){
+                    running = false;
+                    again = changed;
+                    changed = false;
+                }
+                if (again){
+                    schedule();
+                }
+                return null;
+            }
+        });
+    }
+}
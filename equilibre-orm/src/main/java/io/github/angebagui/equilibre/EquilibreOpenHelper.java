@@ -4,23 +4,33 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.j256.ormlite.android.AndroidConnectionSource;
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
 import java.sql.SQLException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by angebagui on 24/08/2015.
  */
 public class EquilibreOpenHelper extends OrmLiteSqliteOpenHelper {
 
-    private static EquilibreOpenHelper instance;
-    private Map<String, Dao> daos = new HashMap<String, Dao>();
+    private static volatile EquilibreOpenHelper instance;
+    private final Map<String, Dao> daos = new ConcurrentHashMap<String, Dao>();
+
+    /**
+     * The read-only connections of the queries, opened the first time they are needed.
+     */
+    private volatile AndroidConnectionSource[] readSources;
+    private final AtomicInteger nextReadSource = new AtomicInteger();
 
     public EquilibreOpenHelper(Context context) {
         super(context, EquilibrePlugins.get().getDatabaseName(),null, EquilibrePlugins.get().getDatabaseVersion());
@@ -68,39 +78,116 @@ public class EquilibreOpenHelper extends OrmLiteSqliteOpenHelper {
     }
 
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (EquilibrePlugins.get().isWriteAheadLogging() && !db.isReadOnly()){
+            if (db.enableWriteAheadLogging()){
+                Log.i(Equilibre.TAG, "Write-ahead logging enabled");
+            }else {
+                Log.w(Equilibre.TAG, "Write-ahead logging is not supported by this database");
+            }
+        }
+    }
+
     @Override
     public void close() {
+        AndroidConnectionSource[] sources;
+        synchronized (this){
+            sources = readSources;
+            readSources = null;
+        }
+        if (sources != null){
+            for (AndroidConnectionSource source : sources){
+                source.closeQuietly();
+            }
+        }
         super.close();
     }
 
+    /**
+     * Gets the connection source of a query. When read connections are configured, the queries are
+     * spread over them, except inside a transaction, whose uncommitted writes only its own connection
+     * can see.
+     *
+     * @param connectionSource the connection source of the DAO
+     * @return the connection source to run the query on
+     */
+    /* package */ ConnectionSource readConnectionSource(ConnectionSource connectionSource) {
+        if (connectionSource != getConnectionSource() || connectionSource.getSpecialConnection() != null){
+            return connectionSource;
+        }
+        AndroidConnectionSource[] sources = readSources;
+        if (sources == null){
+            int count = EquilibrePlugins.get().getReadConnections();
+            if (count == 0){
+                return connectionSource;
+            }
+            synchronized (this){
+                sources = readSources;
+                if (sources == null){
+                    // Creates or upgrades the database before the readers open it
+                    String path = getWritableDatabase().getPath();
+                    sources = new AndroidConnectionSource[count];
+                    for (int i = 0; i < count; i++){
+                        sources[i] = new AndroidConnectionSource(
+                                SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY));
+                    }
+                    readSources = sources;
+                    Log.i(Equilibre.TAG, count + " read connections opened");
+                }
+            }
+        }
+        return sources[(nextReadSource.getAndIncrement() & Integer.MAX_VALUE) % sources.length];
+    }
+
     /**
      * Singleton Get the Helper
      *
      * @param context your  context
      * @return See {@link EquilibreOpenHelper}
      */
-    public static synchronized EquilibreOpenHelper getHelper(Context context) {
-        context = context.getApplicationContext();
-        if (instance == null) {
+    public static EquilibreOpenHelper getHelper(Context context) {
+        // Lock-free once created, the helper is read on every query
+        EquilibreOpenHelper helper = instance;
+        if (helper == null) {
             synchronized (EquilibreOpenHelper.class) {
-                if (instance == null)
-                    instance = new EquilibreOpenHelper(context);
+                helper = instance;
+                if (helper == null)
+                    instance = helper = new EquilibreOpenHelper(context.getApplicationContext());
             }
         }
-        return instance;
+        return helper;
     }
 
-    public synchronized Dao getDao(Class clazz) throws SQLException {
-        Dao dao = null;
+    public Dao getDao(Class clazz) throws SQLException {
         String className = clazz.getSimpleName();
-
-        if (daos.containsKey(className)) {
-            dao = daos.get(className);
-        }
+        Dao dao = daos.get(className);
         if (dao == null) {
-            dao = super.getDao(clazz);
-            daos.put(className, dao);
+            synchronized (this) {
+                dao = daos.get(className);
+                if (dao == null) {
+                    dao = super.getDao(clazz);
+                    if (EquilibreObjectCache.isCached(clazz)) {
+                        dao.setObjectCache(EquilibreObjectCache.INSTANCE);
+                    }
+                    daos.put(className, dao);
+                }
+            }
         }
         return dao;
     }
+
+    /**
+     * Runs the callable inside a single database transaction. Everything done by the callable
+     * is committed at once, or rolled back if it throws.
+     *
+     * @param callable the work to run inside the transaction
+     * @param <T> the type returned by the callable
+     * @return the object returned by the callable
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    public <T> T callInTransaction(Callable<T> callable) throws SQLException {
+        return TransactionManager.callInTransaction(getConnectionSource(), callable);
+    }
 }
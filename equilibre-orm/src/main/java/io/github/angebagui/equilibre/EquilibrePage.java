@@ -0,0 +1,106 @@
+package io.github.angebagui.equilibre;
+
+import java.util.List;
+
+/**
+ * <p>
+ * An {@code EquilibrePage} is a page of objects returned by the keyset pagination of
+ * {@link EquilibreQuery}, with the {@link Token} to fetch the next page.
+ * </p>
+ * <pre>
+ * EquilibrePage&lt;MyClass&gt; page = EquilibreQuery.getQuery(MyClass.class).pageAfter("createdAt", null, 50);
+ * while (page.hasMore()) {
+ *     page = EquilibreQuery.getQuery(MyClass.class).pageAfter(page.getNextToken(), 50);
+ * }
+ * </pre>
+ *
+ * @param <T> the EquilibreObject's subclass
+ */
+public class EquilibrePage<T extends EquilibreObject> {
+
+    private final List<T> objects;
+    private final boolean hasMore;
+    private final Token nextToken;
+
+    EquilibrePage(List<T> objects, boolean hasMore, Token nextToken) {
+        this.objects = objects;
+        this.hasMore = hasMore;
+        this.nextToken = nextToken;
+    }
+
+    /**
+     *
+     * @return the objects of this page, in the page order
+     */
+    public List<T> getObjects() {
+        return objects;
+    }
+
+    /**
+     *
+     * @return {@code true} if there are objects after this page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     *
+     * @return the token to give to {@link EquilibreQuery#pageAfter(Token, long)} to fetch the next
+     * page, or {@code null} if this page is empty
+     */
+    public Token getNextToken() {
+        return nextToken;
+    }
+
+    /**
+     * A {@code Token} remembers where a page stopped: the ordering column and direction, and the
+     * ordering value and id of the last object of the page.
+     */
+    public static class Token {
+
+        private final String orderColumn;
+        private final boolean ascending;
+        private final Object lastValue;
+        private final Object lastId;
+
+        Token(String orderColumn, boolean ascending, Object lastValue, Object lastId) {
+            this.orderColumn = orderColumn;
+            this.ascending = ascending;
+            this.lastValue = lastValue;
+            this.lastId = lastId;
+        }
+
+        /**
+         *
+         * @return the column the pages are ordered by
+         */
+        public String getOrderColumn() {
+            return orderColumn;
+        }
+
+        /**
+         *
+         * @return {@code true} if the pages are in ascending order
+         */
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        /**
+         *
+         * @return the value of the ordering column on the last object of the page
+         */
+        public Object getLastValue() {
+            return lastValue;
+        }
+
+        /**
+         *
+         * @return the id of the last object of the page
+         */
+        public Object getLastId() {
+            return lastId;
+        }
+    }
+}
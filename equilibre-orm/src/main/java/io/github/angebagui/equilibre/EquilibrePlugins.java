@@ -9,6 +9,8 @@ public class EquilibrePlugins {
 
     private String databaseName;
     private Integer databaseVersion;
+    private boolean writeAheadLogging;
+    private int readConnections;
 
     private static EquilibrePlugins instance;
     private static final Object LOCK = new Object();
@@ -18,8 +20,20 @@ public class EquilibrePlugins {
     }
 
     private EquilibrePlugins(String databaseName, int databaseVersion){
+        this(databaseName, databaseVersion, false, 0);
+    }
+
+    private EquilibrePlugins(String databaseName, int databaseVersion, boolean writeAheadLogging, int readConnections){
+        if (readConnections < 0){
+            throw new IllegalArgumentException("readConnections must not be negative");
+        }
+        if (readConnections > 0 && !writeAheadLogging){
+            throw new IllegalArgumentException("The read connections require the write-ahead logging");
+        }
         this.databaseName = databaseName;
         this.databaseVersion = databaseVersion;
+        this.writeAheadLogging = writeAheadLogging;
+        this.readConnections = readConnections;
     }
     static void initialize(String databaseName, int databaseVersion){
         EquilibrePlugins.set(new EquilibrePlugins(databaseName, databaseVersion));
@@ -38,6 +52,22 @@ public class EquilibrePlugins {
         return databaseName;
     }
 
+    /**
+     *
+     * @return {@code true} if the database is opened in write-ahead logging mode
+     */
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    /**
+     *
+     * @return the number of read-only connections used by the queries, 0 to use the single connection
+     */
+    public int getReadConnections() {
+        return readConnections;
+    }
+
 
     public static void set(EquilibrePlugins plugins){
         synchronized (LOCK){
@@ -55,9 +85,18 @@ public class EquilibrePlugins {
             super(databaseName, databaseVersion);
             applicationContext = context.getApplicationContext();
         }
+        private Android(Context context, String databaseName, Integer databaseVersion, boolean writeAheadLogging,
+                        int readConnections) {
+            super(databaseName, databaseVersion, writeAheadLogging, readConnections);
+            applicationContext = context.getApplicationContext();
+        }
         static void initialize(Context context, String databaseName, int databaseVersion){
             EquilibrePlugins.set(new Android(context, databaseName, databaseVersion));
         }
+        static void initialize(Context context, String databaseName, int databaseVersion, boolean writeAheadLogging,
+                               int readConnections){
+            EquilibrePlugins.set(new Android(context, databaseName, databaseVersion, writeAheadLogging, readConnections));
+        }
         public static Android get(){
             return (Android) EquilibrePlugins.get();
         }
@@ -0,0 +1,26 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * The priority of the database work, given to a query with
+ * {@link EquilibreQuery#withPriority(EquilibrePriority)}. The reader and the writer executors of
+ * {@link EquilibreExecutors} run the waiting work of the highest priority first, and in the order it
+ * was submitted within a priority.
+ */
+public enum EquilibrePriority {
+
+    /**
+     * The work a visible screen is waiting for.
+     */
+    INTERACTIVE,
+
+    /**
+     * The default priority.
+     */
+    NORMAL,
+
+    /**
+     * The imports and synchronizations, which give way to the other work. The bulk saves yield to it
+     * between their chunks.
+     */
+    BULK
+}
@@ -2,12 +2,34 @@ package io.github.angebagui.equilibre;
 
 import android.util.Log;
 
+import com.j256.ormlite.dao.BaseDaoImpl;
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.StatementBuilder;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.stmt.UpdateBuilder;
 import com.j256.ormlite.stmt.Where;
+import com.j256.ormlite.table.TableInfo;
 
+import java.lang.reflect.Field;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import bolts.Continuation;
@@ -82,8 +104,6 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     private boolean isRunning = false;
     private Task<Void>.TaskCompletionSource cts;
 
-    final TaskQueue taskQueue =  new TaskQueue();
-
     private QueryBuilder queryBuilder;
 
     /**
@@ -95,10 +115,45 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
 
     private boolean isWhereClauses =false;
 
+    /**
+     * The columns given to {@link #select(String...)}, {@code null} to read every column.
+     */
+    private List<String> selectedColumns;
+
+    /**
+     * The shape of the query, the key of its prepared statement in the {@link PreparedQueryCache}.
+     */
+    private final QueryShape shape = new QueryShape();
+
+    /**
+     * The identity map the objects read by this query go through, {@code null} if none.
+     */
+    private EquilibreSession session;
+
+    /**
+     * The priority of the reads and writes of this query on the {@link EquilibreExecutors}.
+     */
+    private volatile EquilibrePriority priority = EquilibrePriority.NORMAL;
+
+    /**
+     * The number of ids read by each statement of {@link #getAll(Collection)}, below the 999 variables
+     * SQLite accepts in a statement.
+     */
+    public static final int ID_CHUNK_SIZE = 500;
+
+    /**
+     * The numbers of placeholders of the statements of {@link #getAll(Collection)}: a chunk is padded
+     * to the next one, so that a few statements per class are enough whatever the number of ids.
+     */
+    private static final int[] ID_CHUNK_PADDINGS = {1, 4, 16, 64, 256, ID_CHUNK_SIZE};
+
     Object LOCK = new Object();
     public EquilibreQuery(QueryBuilder queryBuilder){
         this.queryBuilder  = queryBuilder;
         this.wheres = this.queryBuilder.where();
+        this.dao = daoOf(queryBuilder);
+        // The builder may already hold clauses the shape does not know about
+        shape.disableReplay();
 
 
     }
@@ -119,6 +174,30 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public void setQueryBuilder(QueryBuilder builder){
         this.queryBuilder = builder;
         this.wheres = this.queryBuilder.where();
+        Dao<? extends EquilibreObject, T2> builderDao = daoOf(builder);
+        if (builderDao != null){
+            this.dao = builderDao;
+        }
+        shape.disableReplay();
+    }
+
+    /**
+     * Finds the DAO a query builder was created by. {@link QueryBuilder} does not expose it, so it is
+     * read from its protected field.
+     *
+     * @param builder the query builder
+     * @return the DAO, or {@code null} if it can not be read: the reads of the query then go through
+     * the query builder itself
+     */
+    private static Dao daoOf(QueryBuilder builder){
+        try {
+            Field field = StatementBuilder.class.getDeclaredField("dao");
+            field.setAccessible(true);
+            return (Dao) field.get(builder);
+        } catch (Exception e) {
+            Log.w(Equilibre.TAG, "Can not find the DAO of the query builder", e);
+            return null;
+        }
     }
 
 
@@ -182,22 +261,18 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      * @return
      */
     private Task<T1> refreshInBackground(final T1 t){
-        return taskQueue.enqueue(new Continuation<Void, Task<T1>>() {
+        return enqueueWrite(new Callable<T1>() {
             @Override
-            public Task<T1> then(Task<Void> task) throws Exception {
-                return task.continueWith(new Continuation<Void, T1>() {
-                    @Override
-                    public T1 then(Task<Void> task) throws Exception {
-                        int result = getDao().update(t);
-                        if (result > 0) {
-                            Log.d(Equilibre.TAG, t.getClass().getSimpleName() + " updated successfully with Id ==>>> " + t.getEquilibreId());
-                        } else {
-                            Log.e(Equilibre.TAG, " echec when saved" + t.getClass().getSimpleName());
-                        }
+            public T1 call() throws Exception {
+                int result = getDao().update(t);
+                onSaved(t);
+                if (result > 0) {
+                    Log.d(Equilibre.TAG, t.getClass().getSimpleName() + " updated successfully with Id ==>>> " + t.getEquilibreId());
+                } else {
+                    Log.e(Equilibre.TAG, " echec when saved" + t.getClass().getSimpleName());
+                }
 
-                        return t;
-                    }
-                });
+                return t;
             }
         });
     }
@@ -209,8 +284,18 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      *          See {@link DeleteCallback}
      */
     public void countInBackground(final CountCallback callback){
+        callbackOnMainThreadAsync(countInBackground(), callback);
+    }
+
+    /**
+     * Calls the {@link CountCallback} on the main thread after the task completes.
+     *
+     * @param task the task to execute in background thread
+     * @param callback See {@link CountCallback}
+     */
+    /* package */ static void callbackOnMainThreadAsync(Task<Long> task, final CountCallback callback){
         final Task<Long>.TaskCompletionSource cts = Task.create();
-        countInBackground().continueWith(new Continuation<Long, Void>() {
+        task.continueWith(new Continuation<Long, Void>() {
             @Override
             public Void then(final Task<Long> task) throws Exception {
                 if (task.isCancelled()) {
@@ -226,7 +311,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
                             if (error != null && !(error instanceof EquilibreException)) {
                                 error = new EquilibreException(error);
                             }
-                            callback.done(task.getResult(), (EquilibreException) error);
+                            callback.done(task.isFaulted() ? 0 : task.getResult(), (EquilibreException) error);
                         } finally {
                             if (task.isCancelled()) {
                                 cts.setCancelled();
@@ -248,10 +333,26 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      *
      */
     private Task<Long> countInBackground(){
-        return Task.callInBackground(new Callable<Long>() {
+        return shared("count", new Callable<Long>() {
             @Override
             public Long call() throws Exception {
-                return getQueryBuilder().countOf();
+                PreparedQuery<T1> prepared = prepareCached(true);
+                if (prepared == null){
+                    synchronized (LOCK){
+                        if (dao == null){
+                            queryBuilder.setWhere(isWhereClauses ? wheres : null);
+                            return queryBuilder.countOf();
+                        }
+                        queryBuilder.setCountOf(true);
+                        try {
+                            return getDao().countOf(prepareQuery());
+                        } finally {
+                            queryBuilder.setCountOf(false);
+                        }
+                    }
+                }
+                return PreparedQueries.queryForFirst(getDao().getConnectionSource(), prepared, shape.getArguments(),
+                        StatementType.SELECT_LONG, PreparedQueries.LONG_MAPPER, null);
             }
         });
     }
@@ -291,15 +392,15 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     private Task<Void> deleteInBackground(final T1 t){
         checkIfRunning(true);
-        return taskQueue.enqueue(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-                return task;
-            }
-        }).continueWith(new Continuation<Void, Void>() {
+        if (EquilibreWriteBehind.isEnabled()){
+            return releaseWhenDone(EquilibreWriteBehind.delete(t));
+        }
+        return releaseWhenDone(enqueueOnWriter(new Continuation<Void, Void>() {
             @Override
             public Void then(Task<Void> task) throws Exception {
                 int result = getDao().delete(t);
+                EquilibreSession.onDeleted(t.getClass(), t.getEquilibreId());
+                TableVersions.bump(getDao().getDataClass());
                 if (result>0){
                     Log.d(Equilibre.TAG, t.getClass().getSimpleName()+" deleted successfully with Id ==>>> "+t.getEquilibreId());
                 }else{
@@ -308,7 +409,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
 
                 return null;
             }
-        });
+        }));
     }
     /**
      * Delete {@link EquilibreObject}'s subclass in a background thread
@@ -318,15 +419,12 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     private Task<Void> deleteInBackground(final T2 id){
         checkIfRunning(true);
-        return taskQueue.enqueue(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-                return task;
-            }
-        }).continueWith(new Continuation<Void, Void>() {
+        return releaseWhenDone(enqueueWrite(new Callable<Void>() {
             @Override
-            public Void then(Task<Void> task) throws Exception {
+            public Void call() throws Exception {
                 int result = getDao().deleteById(id);
+                EquilibreSession.onDeleted(getDao().getDataClass(), id);
+                TableVersions.bump(getDao().getDataClass());
                 if (result>0){
                     Log.d(Equilibre.TAG, getDao().getClass().getSimpleName()+" deleted successfully with Id ==>>> "+id);
                 }else{
@@ -335,104 +433,1158 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
 
                 return null;
             }
+        }));
+    }
+
+
+    /**
+     * Deletes every row matching the where clauses of this query with a single {@code DELETE}
+     * statement, without loading the objects.
+     *
+     * @return the number of deleted rows
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long deleteWhere() throws EquilibreException {
+        return EquilibreTaskUtils.wait(deleteWhereInBackground());
+    }
+
+    /**
+     * Delete every {@link EquilibreObject}'s subclass matching the query asynchronuously
+     *
+     * @param callback
+     *          {@code callback.done(count, e)} is called with the number of deleted rows
+     */
+    public void deleteWhereInBackground(CountCallback callback){
+        callbackOnMainThreadAsync(deleteWhereInBackground(), callback);
+    }
+
+    /**
+     * Delete every {@link EquilibreObject}'s subclass matching the query in a background thread
+     *
+     * @return A {@link Task} that is resolved with the number of deleted rows.
+     */
+    private Task<Long> deleteWhereInBackground(){
+        checkIfRunning(true);
+        return releaseWhenDone(enqueueWrite(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                DeleteBuilder<T1, T2> builder = getDao().deleteBuilder();
+                builder.setWhere(wheres);
+                int result = builder.delete();
+                onTableChanged();
+                Log.d(Equilibre.TAG, result + " " + getClassName() + " deleted successfully");
+                return (long) result;
+            }
+        }));
+    }
+
+    /**
+     * Sets the column to the value on every row matching the where clauses of this query, with a
+     * single {@code UPDATE} statement.
+     *
+     * @param key the column name
+     * @param value the new value
+     * @return the number of updated rows
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long updateWhere(String key, Object value) throws EquilibreException {
+        return updateWhere(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Sets the columns to the values on every row matching the where clauses of this query, with a
+     * single {@code UPDATE} statement.
+     *
+     * @param values the new values by column name
+     * @return the number of updated rows
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long updateWhere(Map<String, Object> values) throws EquilibreException {
+        return EquilibreTaskUtils.wait(updateWhereInBackground(values));
+    }
+
+    /**
+     * Update every {@link EquilibreObject}'s subclass matching the query asynchronuously
+     *
+     * @param key the column name
+     * @param value the new value
+     * @param callback
+     *          {@code callback.done(count, e)} is called with the number of updated rows
+     */
+    public void updateWhereInBackground(String key, Object value, CountCallback callback){
+        updateWhereInBackground(Collections.singletonMap(key, value), callback);
+    }
+
+    /**
+     * Update every {@link EquilibreObject}'s subclass matching the query asynchronuously
+     *
+     * @param values the new values by column name
+     * @param callback
+     *          {@code callback.done(count, e)} is called with the number of updated rows
+     */
+    public void updateWhereInBackground(Map<String, Object> values, CountCallback callback){
+        callbackOnMainThreadAsync(updateWhereInBackground(values), callback);
+    }
+
+    /**
+     * Update every {@link EquilibreObject}'s subclass matching the query in a background thread
+     *
+     * @param values the new values by column name
+     * @return A {@link Task} that is resolved with the number of updated rows.
+     */
+    private Task<Long> updateWhereInBackground(final Map<String, Object> values){
+        if (values.isEmpty()){
+            throw new IllegalArgumentException("No column to update");
+        }
+        checkIfRunning(true);
+        return releaseWhenDone(enqueueWrite(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                UpdateBuilder<T1, T2> builder = getDao().updateBuilder();
+                for (Map.Entry<String, Object> value : values.entrySet()){
+                    builder.updateColumnValue(value.getKey(), value.getValue());
+                }
+                builder.setWhere(wheres);
+                int result = builder.update();
+                onTableChanged();
+                Log.d(Equilibre.TAG, result + " " + getClassName() + " updated successfully");
+                return (long) result;
+            }
+        }));
+    }
+
+    /**
+     *
+     * @return the write queue of the table, shared by every query of the class
+     */
+    private TaskQueue taskQueue(){
+        if (dao == null){
+            throw new IllegalStateException("The writes need the DAO of the query builder, which could not be found");
+        }
+        return TaskQueue.forTable(getDao().getDataClass());
+    }
+
+    /**
+     *
+     * @return the number of writes to the table of the class enqueued and not completed yet
+     */
+    public int getWriteQueueDepth(){
+        return taskQueue().getDepth();
+    }
+
+    /**
+     * Adds the write to the TaskQueue of the table and runs it on the writer thread once the previous
+     * writes to the table are done.
+     *
+     * @param write the write
+     * @return A {@link Task} that is resolved when the write completes.
+     */
+    private <T> Task<T> enqueueOnWriter(final Continuation<Void, T> write){
+        return taskQueue().enqueue(new Continuation<Void, Task<T>>() {
+            @Override
+            public Task<T> then(Task<Void> toAwait) throws Exception {
+                return toAwait.continueWith(write, EquilibreExecutors.writer(priority));
+            }
+        });
+    }
+
+    /**
+     * Adds the write to the TaskQueue. The write starts once the previous ones are done and once
+     * the operations buffered by {@link EquilibreWriteBehind} are committed, so it never overtakes
+     * a save or a delete made before it. It runs even if some of them failed: their errors are given
+     * to their own callers.
+     *
+     * @param write the write to run in a background thread
+     * @return A {@link Task} that is resolved when the write completes.
+     */
+    private <T> Task<T> enqueueWrite(final Callable<T> write){
+        // The flush is enqueued first: it takes its turn in the write queue of the table before the
+        // write, which can then wait for it
+        final Task<Void> flushed = EquilibreWriteBehind.flushInBackground();
+        return taskQueue().enqueue(new Continuation<Void, Task<T>>() {
+            @Override
+            public Task<T> then(Task<Void> toAwait) throws Exception {
+                return toAwait.continueWithTask(new Continuation<Void, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(Task<Void> task) throws Exception {
+                        return flushed;
+                    }
+                }).continueWith(new Continuation<Void, T>() {
+                    @Override
+                    public T then(Task<Void> task) throws Exception {
+                        return write.call();
+                    }
+                }, EquilibreExecutors.writer(priority));
+            }
         });
     }
 
+    /**
+     * Find List {@link EquilibreObject}'s subclass asynchronuously
+     * <p>
+     * For example, this sample code fetches all objects of class {@code "MyClass"}. It calls a
+     * different function depending on whether the fetch succeeded or not.
+     * </p>
+     * <pre>
+     * EquilibreQuery&lt;EquilibreObject&gt; query = EquilibreQuery.getQuery(&quot;MyClass&quot;);
+     * query.findInBackground(new FindCallback&lt;EquilibreObject&gt;() {
+     *   public void done(List&lt;EquilibreObject&gt; objects, EquilibreException e) {
+     *     if (e == null) {
+     *       objectsWereRetrievedSuccessfully(objects);
+     *     } else {
+     *       objectRetrievalFailed();
+     *     }
+     *   }
+     * });
+     * </pre>
+     * @param callback this callback run on the mainthread
+     *
+     */
+    public void findInBackground(EquilibreCallback2 callback){
+        if (callback instanceof FindCallback){
+            EquilibreTaskUtils.callbackOnMainThreadAsync(findInBackground(), callback);
+        }else {
+            EquilibreTaskUtils.callbackOnMainThreadAsync(findOneInBackground(), callback);
+        }
+
+    }
+
+    /**
+     * Find List of {@link EquilibreObject}'s subclass in a background thread
+     *
+
+     * @return A {@link Task} that is resolved when finding completes.
+     */
+    private Task<List<T1>> findInBackground(){
+        checkIfRunning(true);
+        return releaseWhenDone(shared("find", new Callable<List<T1>>() {
+            @Override
+            public List<T1> call() throws Exception {
+
+                return query();
+
+            }
+        }).onSuccess(new Continuation<List<T1>, List<T1>>() {
+            @Override
+            public List<T1> then(Task<List<T1>> task) throws Exception {
+                // The objects may be shared with other callers, the list is not
+                return attachAll(task.getResult());
+            }
+        }));
+    }
+    private Task<T1> findOneInBackground(){
+        checkIfRunning(true);
+        return releaseWhenDone(shared("findOne", new Callable<T1>() {
+            @Override
+            public T1 call() throws Exception {
+
+                if (isWhereClauses) {
+                    PreparedQuery<T1> prepared = prepareCached(false);
+                    if (prepared == null){
+                        if (selectedColumns == null || dao == null){
+                            return getQueryBuilder().queryForFirst();
+                        }
+                        prepared = prepareQuery();
+                        return PreparedQueries.queryForFirst(getDao().getConnectionSource(), prepared, null,
+                                StatementType.SELECT, prepared, null);
+                    }
+                    return PreparedQueries.queryForFirst(getDao().getConnectionSource(), prepared, shape.getArguments(),
+                            StatementType.SELECT, prepared, objectCache());
+                } else {
+                    throw new RuntimeException("None clause used");
+                }
+            }
+        }).onSuccess(new Continuation<T1, T1>() {
+            @Override
+            public T1 then(Task<T1> task) throws Exception {
+                return attach(task.getResult());
+            }
+        }));
+    }
+
+    /**
+     * Observes the query: the callback gets the objects of the query now, then again each time a write
+     * made through Equilibre is committed to the table of the class, see {@link EquilibreObservation}.
+     *
+     * @param callback this callback run on the mainthread
+     * @return the observation, to cancel when the results are no longer needed
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibreObservation<T1> observe(FindCallback<T1> callback) throws EquilibreException {
+        return observe(EquilibreObservation.DEFAULT_DEBOUNCE_MILLIS, callback);
+    }
+
+    /**
+     * Observes the query: the callback gets the objects of the query now, then again each time a write
+     * made through Equilibre is committed to the table of the class or to one of the joined tables.
+     * The query is taken as it is now, the later changes to this query do not change the observation.
+     *
+     * @param debounceMillis the time during which the writes are coalesced into a single run
+     * @param callback this callback run on the mainthread
+     * @param joinedClasses the classes of the query builders joined to this query, if any
+     * @return the observation, to cancel when the results are no longer needed
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibreObservation<T1> observe(long debounceMillis, FindCallback<T1> callback,
+                                            Class<? extends EquilibreObject>... joinedClasses) throws EquilibreException {
+        if (callback == null){
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        return new EquilibreObservation<T1>(observedTables(joinedClasses), observedRead(true, true), callback,
+                debounceMillis, EquilibreExecutors.reader(priority)).start();
+    }
+
+    /**
+     * Observes the changes of the query: the callback gets the objects of the query now, then, each
+     * time a write made through Equilibre is committed to the table of the class, the new objects with
+     * their changes from the previous result, computed in a background thread. See
+     * {@link EquilibreChangeSet}.
+     *
+     * @param callback this callback run on the mainthread
+     * @return the observation, to cancel when the results are no longer needed
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibreObservation<T1> observeChanges(ChangeSetCallback<T1> callback) throws EquilibreException {
+        return observeChanges(EquilibreObservation.DEFAULT_DEBOUNCE_MILLIS, callback);
+    }
+
+    /**
+     * Observes the changes of the query, like {@link #observeChanges(ChangeSetCallback)}, also after the
+     * writes to the joined tables. The objects are read without the session of the query and without
+     * the {@link EquilibreObjectCache}: every result holds its own instances, so that the changes of
+     * their fields can be detected.
+     *
+     * @param debounceMillis the time during which the writes are coalesced into a single run
+     * @param callback this callback run on the mainthread
+     * @param joinedClasses the classes of the query builders joined to this query, if any
+     * @return the observation, to cancel when the results are no longer needed
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibreObservation<T1> observeChanges(long debounceMillis, ChangeSetCallback<T1> callback,
+                                                   Class<? extends EquilibreObject>... joinedClasses) throws EquilibreException {
+        if (callback == null){
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        final Callable<List<T1>> read = observedRead(false, false);
+        return new EquilibreObservation<T1>(observedTables(joinedClasses), new Callable<EquilibreChangeSet<T1>>() {
+            // Only one run of an observation at a time
+            private List<T1> previous = Collections.emptyList();
+
+            @Override
+            public EquilibreChangeSet<T1> call() throws Exception {
+                List<T1> objects = read.call();
+                EquilibreChangeSet<T1> changes = EquilibreChangeSet.compute(previous, objects, (Dao<T1, ?>) getDao());
+                previous = objects;
+                return changes;
+            }
+        }, callback, debounceMillis, EquilibreExecutors.reader(priority)).start();
+    }
+
+    /**
+     *
+     * @return the registered classes of the table of this query and of the joined tables
+     */
+    private Set<Class<?>> observedTables(Class<? extends EquilibreObject>[] joinedClasses){
+        Set<Class<?>> tables = new LinkedHashSet<Class<?>>();
+        tables.add(EquilibreObject.getRegisteredClass(getDao().getDataClass()));
+        for (Class<? extends EquilibreObject> joinedClass : joinedClasses){
+            tables.add(EquilibreObject.getRegisteredClass(joinedClass));
+        }
+        return tables;
+    }
+
+    /**
+     * Takes the query as it is now into a read that can be run again, from any thread.
+     *
+     * @param attached {@code true} to attach the objects read to the session of the query
+     * @param cached {@code true} to read the objects through the {@link EquilibreObjectCache}
+     * @return the read
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    private Callable<List<T1>> observedRead(final boolean attached, boolean cached) throws EquilibreException {
+        final PreparedQuery<T1> prepared;
+        final Object[] arguments;
+        final ObjectCache objectCache;
+        try {
+            synchronized (LOCK){
+                objectCache = cached ? objectCache() : null;
+                PreparedQuery<T1> shared = prepareCached(false);
+                if (shared != null){
+                    prepared = shared;
+                    arguments = shape.getArguments();
+                }else {
+                    prepared = prepareQuery();
+                    arguments = null;
+                }
+            }
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+        return new Callable<List<T1>>() {
+            @Override
+            public List<T1> call() throws Exception {
+                List<T1> objects = PreparedQueries.query(getDao().getConnectionSource(), prepared, arguments,
+                        StatementType.SELECT, prepared, objectCache);
+                return attached ? attachAll(objects) : objects;
+            }
+        };
+    }
+
+    /**
+     *
+     * Get a model by id synchronously
+     *
+     * @param id id of the object
+     * @return the object found
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public T1 get(T2 id) throws EquilibreException {
+        return EquilibreTaskUtils.wait(getInBackground(id));
+    }
+
+    /**
+     *
+     * @return List of Object found synchronously
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public List<T1> find() throws EquilibreException {
+        return EquilibreTaskUtils.wait(findInBackground());
+    }
+
+    /**
+     * Opens a cursor on the objects matching the query. The objects are loaded one at a time while
+     * iterating, so the memory used does not depend on the number of rows. The iterator must be
+     * closed, for example with {@link CloseableIterator#closeQuietly()}, once you are done with it.
+     * <p>
+     * This method does not block, but iterating does: do not iterate on the main thread.
+     * </p>
+     *
+     * @return a lazy iterator over the objects found
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public CloseableIterator<T1> findIterator() throws EquilibreException {
+        checkIfRunning();
+        try {
+            return iterator();
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Calls the consumer with each object matching the query, loading the objects one at a time.
+     * The iteration stops as soon as the consumer returns {@code false} and the cursor is always closed.
+     *
+     * @param consumer called with each object, returns {@code false} to stop the iteration
+     * @return the number of objects given to the consumer
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long forEach(FunctionalUtils.Function1<T1, Boolean> consumer) throws EquilibreException {
+        return EquilibreTaskUtils.wait(forEachInBackground(consumer));
+    }
+
+    /**
+     * Calls the consumer with each object matching the query in a background thread, loading the
+     * objects one at a time.
+     *
+     * @param consumer called in the background thread with each object, returns {@code false} to stop
+     *                 the iteration
+     * @param callback
+     *          {@code callback.done(count, e)} is called on the main thread with the number of objects
+     *          given to the consumer
+     */
+    public void forEachInBackground(FunctionalUtils.Function1<T1, Boolean> consumer, CountCallback callback){
+        callbackOnMainThreadAsync(forEachInBackground(consumer), callback);
+    }
+
+    /**
+     * Iterate over {@link EquilibreObject}'s subclass in a background thread
+     *
+     * @param consumer called with each object, returns {@code false} to stop the iteration
+     * @return A {@link Task} that is resolved with the number of objects given to the consumer.
+     */
+    private Task<Long> forEachInBackground(final FunctionalUtils.Function1<T1, Boolean> consumer){
+        checkIfRunning(true);
+        return releaseWhenDone(Task.call(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                CloseableIterator<T1> iterator = iterator();
+                long count = 0;
+                try {
+                    while (iterator.hasNext()) {
+                        count++;
+                        if (Boolean.FALSE.equals(consumer.call(iterator.nextThrow()))) {
+                            break;
+                        }
+                    }
+                } finally {
+                    iterator.closeQuietly();
+                }
+                return count;
+            }
+        }, EquilibreExecutors.reader(priority)));
+    }
+
+    /**
+     * Prepares the select statement, with the where clauses only when some were added.
+     *
+     * @return the prepared query
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    private PreparedQuery<T1> prepareQuery() throws SQLException {
+        queryBuilder.setWhere(isWhereClauses ? wheres : null);
+        return queryBuilder.prepare();
+    }
+
+    /**
+     * Compiles the query into an immutable {@link EquilibreCompiledQuery}, which can be run any number
+     * of times, from any thread, and bound to other values without building the query again.
+     * <pre>
+     * EquilibreCompiledQuery&lt;Message&gt; byAuthor = EquilibreQuery.getQuery(Message.class)
+     *         .whereEqualTo("author", someAuthorId).orderByDescending("date").compile();
+     * ...
+     * List&lt;Message&gt; messages = byAuthor.bind(authorId).find();
+     * </pre>
+     *
+     * @return the compiled query, bound to the values given to this query
+     * @throws EquilibreException an exception can be thrown if the query joins other query builders or
+     * compares to {@code null} or to an object, which can not be compiled
+     */
+    public EquilibreCompiledQuery<T1> compile() throws EquilibreException {
+        try {
+            synchronized (LOCK){
+                PreparedQuery<T1> select = prepareCached(false);
+                if (select == null){
+                    throw new EquilibreException(EquilibreException.INVALID_QUERY, "This query can not be compiled");
+                }
+                return new EquilibreCompiledQuery<T1>((Dao<T1, ?>) getDao(), select, prepareCached(true),
+                        shape.getArguments());
+            }
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Gets the statement of the query shape from the {@link PreparedQueryCache}, preparing and caching
+     * it the first time. Its placeholders must be bound to {@link QueryShape#getArguments()}.
+     *
+     * @param countOf {@code true} to get the {@code COUNT} statement
+     * @return the shared prepared query, or {@code null} if the query can not be cached
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    private PreparedQuery<T1> prepareCached(boolean countOf) throws SQLException {
+        return prepareCached(shape, countOf);
+    }
+
+    /**
+     * Same as {@link #prepareCached(boolean)} for another shape, such as a page built on a copy of the
+     * query shape.
+     */
+    private PreparedQuery<T1> prepareCached(QueryShape shape, boolean countOf) throws SQLException {
+        if (!shape.isCacheable()){
+            return null;
+        }
+        Class<T1> dataClass = getDao().getDataClass();
+        String key = (countOf ? "count|" : "select|") + shape.getKey();
+        PreparedQuery<T1> prepared = PreparedQueryCache.get(dataClass, key);
+        if (prepared == null){
+            QueryBuilder<T1, T2> builder = shape.build(getDao());
+            builder.setCountOf(countOf);
+            prepared = builder.prepare();
+            PreparedQueryCache.put(dataClass, key, prepared);
+        }
+        return prepared;
+    }
+
+    /**
+     * Runs the select statement, taken from the {@link PreparedQueryCache} when possible.
+     *
+     * @return the objects found
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    private List<T1> query() throws SQLException {
+        PreparedQuery<T1> prepared = prepareCached(false);
+        if (prepared == null){
+            if (dao == null){
+                synchronized (LOCK){
+                    queryBuilder.setWhere(isWhereClauses ? wheres : null);
+                    return queryBuilder.query();
+                }
+            }
+            if (selectedColumns == null){
+                return getDao().query(prepareQuery());
+            }
+            prepared = prepareQuery();
+            return PreparedQueries.query(getDao().getConnectionSource(), prepared, null, StatementType.SELECT,
+                    prepared, null);
+        }
+        return PreparedQueries.query(getDao().getConnectionSource(), prepared, shape.getArguments(),
+                StatementType.SELECT, prepared, objectCache());
+    }
+
+    /**
+     * The objects read with {@link #select(String...)} only have some of their columns: they must not
+     * replace the complete objects of the {@link EquilibreObjectCache}.
+     *
+     * @return the object cache of the DAO, or {@code null} when the query reads some columns only
+     */
+    private ObjectCache objectCache(){
+        return selectedColumns == null ? getDao().getObjectCache() : null;
+    }
+
+    /**
+     * Opens a cursor on the select statement, taken from the {@link PreparedQueryCache} when possible.
+     *
+     * @return the iterator
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    private CloseableIterator<T1> iterator() throws SQLException {
+        PreparedQuery<T1> prepared = prepareCached(false);
+        if (prepared == null){
+            if (dao == null){
+                synchronized (LOCK){
+                    queryBuilder.setWhere(isWhereClauses ? wheres : null);
+                    return queryBuilder.iterator();
+                }
+            }
+            return getDao().iterator(prepareQuery());
+        }
+        // The statement is compiled, with its arguments, when the iterator is opened
+        synchronized (prepared){
+            PreparedQueries.bind(prepared, shape.getArguments());
+            return getDao().iterator(prepared);
+        }
+    }
+
+    /**
+     * Fetches the page of objects that come after {@code lastValue} in the ascending order of
+     * {@code orderColumn}. Instead of skipping rows with an offset, the page starts with an index seek
+     * on the column, so every page costs the same whatever its depth.
+     * <p>
+     * The query is ordered by the column and then by id, do not add another ordering. Pass a
+     * {@code null} {@code lastValue} to fetch the first page, then use {@link #pageAfter(EquilibrePage.Token, long)}
+     * with {@link EquilibrePage#getNextToken()}, which also handles rows sharing the same value. The
+     * query itself is not changed, so it can fetch any number of pages; like {@link #compile()}, it must
+     * not join other query builders or compare to {@code null} or to an object.
+     * </p>
+     *
+     * @param orderColumn the column to order the pages by, which should not be {@code null} in any row
+     * @param lastValue the value of the column on the last object already read, or {@code null}
+     * @param pageSize the maximum number of objects in the page
+     * @return the page
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibrePage<T1> pageAfter(String orderColumn, Object lastValue, long pageSize) throws EquilibreException {
+        return EquilibreTaskUtils.wait(pageInBackground(orderColumn, true, lastValue, null, pageSize));
+    }
+
+    /**
+     * Same as {@link #pageAfter(String, Object, long)} in the descending order of {@code orderColumn}:
+     * fetches the page of objects that come before {@code lastValue}.
+     *
+     * @param orderColumn the column to order the pages by, which should not be {@code null} in any row
+     * @param lastValue the value of the column on the last object already read, or {@code null}
+     * @param pageSize the maximum number of objects in the page
+     * @return the page
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibrePage<T1> pageBefore(String orderColumn, Object lastValue, long pageSize) throws EquilibreException {
+        return EquilibreTaskUtils.wait(pageInBackground(orderColumn, false, lastValue, null, pageSize));
+    }
+
+    /**
+     * Fetches the page following the page that returned the token.
+     *
+     * @param token the token returned by {@link EquilibrePage#getNextToken()}
+     * @param pageSize the maximum number of objects in the page
+     * @return the page
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public EquilibrePage<T1> pageAfter(EquilibrePage.Token token, long pageSize) throws EquilibreException {
+        return EquilibreTaskUtils.wait(pageInBackground(token.getOrderColumn(), token.isAscending(),
+                token.getLastValue(), token.getLastId(), pageSize));
+    }
+
+    /**
+     * See {@link #pageAfter(String, Object, long)}
+     *
+     * @param orderColumn the column to order the pages by
+     * @param lastValue the value of the column on the last object already read, or {@code null}
+     * @param pageSize the maximum number of objects in the page
+     * @param callback this callback run on the mainthread
+     */
+    public void pageAfterInBackground(String orderColumn, Object lastValue, long pageSize, PageCallback<T1> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(pageInBackground(orderColumn, true, lastValue, null, pageSize), callback);
+    }
+
+    /**
+     * See {@link #pageBefore(String, Object, long)}
+     *
+     * @param orderColumn the column to order the pages by
+     * @param lastValue the value of the column on the last object already read, or {@code null}
+     * @param pageSize the maximum number of objects in the page
+     * @param callback this callback run on the mainthread
+     */
+    public void pageBeforeInBackground(String orderColumn, Object lastValue, long pageSize, PageCallback<T1> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(pageInBackground(orderColumn, false, lastValue, null, pageSize), callback);
+    }
+
+    /**
+     * See {@link #pageAfter(EquilibrePage.Token, long)}
+     *
+     * @param token the token returned by {@link EquilibrePage#getNextToken()}
+     * @param pageSize the maximum number of objects in the page
+     * @param callback this callback run on the mainthread
+     */
+    public void pageAfterInBackground(EquilibrePage.Token token, long pageSize, PageCallback<T1> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(pageInBackground(token.getOrderColumn(), token.isAscending(),
+                token.getLastValue(), token.getLastId(), pageSize), callback);
+    }
+
+    /**
+     * Find a page of {@link EquilibreObject}'s subclass in a background thread
+     *
+     * @return A {@link Task} that is resolved with the page.
+     */
+    private Task<EquilibrePage<T1>> pageInBackground(final String orderColumn, final boolean ascending,
+                                                     final Object lastValue, final Object lastId,
+                                                     final long pageSize){
+        if (pageSize < 1){
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        }
+        checkIfRunning(true);
+        return releaseWhenDone(Task.call(new Callable<EquilibrePage<T1>>() {
+            @Override
+            public EquilibrePage<T1> call() throws Exception {
+                FieldType orderField = getTableInfo().getFieldTypeByColumnName(orderColumn);
+                FieldType idField = getTableInfo().getIdField();
+                boolean tieBreak = idField != null && idField != orderField;
+
+                // The page is built on a copy of the shape, the query itself is left as it was
+                QueryShape page;
+                synchronized (LOCK){
+                    page = shape.copy();
+                }
+                if (lastValue != null){
+                    addSeekClause(page, orderColumn, ascending, lastValue,
+                            tieBreak ? idField.getColumnName() : null, lastId);
+                }
+                page.orderBy(orderColumn, ascending);
+                if (tieBreak){
+                    page.orderBy(idField.getColumnName(), ascending);
+                }
+                // One more row than asked tells if there is a next page
+                page.builder(QueryShape.Operation.LIMIT, null, pageSize + 1);
+
+                PreparedQuery<T1> prepared = prepareCached(page, false);
+                if (prepared == null){
+                    throw new EquilibreException(EquilibreException.INVALID_QUERY, "This query can not be paged");
+                }
+                List<T1> objects = attachAll(PreparedQueries.<T1>query(getDao().getConnectionSource(), prepared,
+                        page.getArguments(), StatementType.SELECT, prepared, objectCache()));
+                boolean hasMore = objects.size() > pageSize;
+                if (hasMore){
+                    objects = objects.subList(0, (int) pageSize);
+                }
+                EquilibrePage.Token nextToken = null;
+                if (!objects.isEmpty()){
+                    T1 last = objects.get(objects.size() - 1);
+                    nextToken = new EquilibrePage.Token(orderColumn, ascending, orderField.extractJavaFieldValue(last),
+                            tieBreak ? idField.extractJavaFieldValue(last) : null);
+                }
+                return new EquilibrePage<T1>(objects, hasMore, nextToken);
+            }
+        }, EquilibreExecutors.reader(priority)));
+    }
+
+    /**
+     * Restricts the page to the rows after ({@code ascending}) or before the last row read:
+     * {@code column > lastValue OR (column = lastValue AND id > lastId)}, combined with AND with the
+     * where clauses of the shape.
+     */
+    private static void addSeekClause(QueryShape page, String column, boolean ascending, Object lastValue,
+                                      String idColumn, Object lastId){
+        boolean combine = page.hasWhere();
+        QueryShape.Operation seek = ascending ? QueryShape.Operation.GT : QueryShape.Operation.LT;
+        page.where(seek, column, lastValue);
+        if (idColumn != null && lastId != null){
+            page.where(QueryShape.Operation.EQ, column, lastValue);
+            page.where(seek, idColumn, lastId);
+            page.combine(QueryShape.Operation.AND_MANY, 2);
+            page.combine(QueryShape.Operation.OR_MANY, 2);
+        }
+        if (combine){
+            page.combine(QueryShape.Operation.AND_MANY, 2);
+        }
+    }
+
+    /**
+     *
+     * @return the table information of the queried class
+     */
+    private TableInfo<T1, T2> getTableInfo(){
+        return ((BaseDaoImpl<T1, T2>) getDao()).getTableInfo();
+    }
+
+    /**
+     * Fetches the values of the columns given to {@link #select(String...)} (or of every column when
+     * there is no projection) without creating the {@link EquilibreObject}s, which saves the reflection
+     * and the allocation of the entities.
+     *
+     * @return one array per row, holding the values in the order of the selected columns
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public List<Object[]> findRows() throws EquilibreException {
+        return EquilibreTaskUtils.wait(findRowsInBackground());
+    }
+
+    /**
+     * See {@link #findRows()}
+     *
+     * @param callback this callback run on the mainthread
+     */
+    public void findRowsInBackground(RowsCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(findRowsInBackground(), callback);
+    }
+
+    /**
+     * Find the values of the selected columns in a background thread
+     *
+     * @return A {@link Task} that is resolved with one array per row.
+     */
+    private Task<List<Object[]>> findRowsInBackground(){
+        checkIfRunning(true);
+        return releaseWhenDone(Task.call(new Callable<List<Object[]>>() {
+            @Override
+            public List<Object[]> call() throws Exception {
+                TableInfo<T1, T2> tableInfo = getTableInfo();
+                FieldType[] columns;
+                if (selectedColumns == null){
+                    columns = tableInfo.getFieldTypes();
+                }else {
+                    columns = new FieldType[selectedColumns.size()];
+                    for (int i = 0; i < columns.length; i++){
+                        columns[i] = tableInfo.getFieldTypeByColumnName(selectedColumns.get(i));
+                    }
+                }
+                PreparedQuery<T1> prepared = prepareCached(false);
+                if (prepared == null){
+                    return PreparedQueries.query(getDao().getConnectionSource(), prepareQuery(), null, StatementType.SELECT,
+                            new PreparedQueries.ColumnsRowMapper(columns), null);
+                }
+                return PreparedQueries.query(getDao().getConnectionSource(), prepared, shape.getArguments(),
+                        StatementType.SELECT, new PreparedQueries.ColumnsRowMapper(columns), null);
+            }
+        }, EquilibreExecutors.reader(priority)));
+    }
+
+    /**
+     *
+     * @return the count in the database
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long count() throws EquilibreException {
+        return EquilibreTaskUtils.wait(countInBackground());
+    }
+
+    /**
+     * Checks whether an object matches the where clauses of the query, with a {@code SELECT 1 ... LIMIT 1}
+     * statement that stops at the first matching row and does not create any object. The check runs on
+     * the calling thread: do not call it on the main thread.
+     *
+     * @return {@code true} if at least one object matches
+     * @throws EquilibreException an exception can be thrown if something is wrong, with
+     * {@link EquilibreException#INVALID_QUERY} if the query joins other query builders
+     */
+    public boolean exists() throws EquilibreException {
+        try {
+            return queryExists();
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * See {@link #exists()}
+     *
+     * @param callback this callback run on the mainthread
+     */
+    public void existsInBackground(ExistsCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(Task.call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return queryExists();
+            }
+        }, EquilibreExecutors.reader(priority)), callback);
+    }
+
+    /**
+     * Checks whether an object with the id exists. When the {@link EquilibreIdFilter} is enabled for
+     * the class, most of the ids that were never saved are answered without querying the database.
+     * The check runs on the calling thread: do not call it on the main thread.
+     *
+     * @param id the id of the object
+     * @return {@code true} if the object exists
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public boolean existsById(T2 id) throws EquilibreException {
+        if (!EquilibreIdFilter.mightContain(getDao().getDataClass(), id)){
+            return false;
+        }
+        try {
+            return getDao().idExists(id);
+        } catch (SQLException e) {
+            throw new EquilibreException(e);
+        }
+    }
+
+    /**
+     * Runs the existence statement, taken from the {@link PreparedQueryCache} when possible. Only the
+     * where clauses of the query apply.
+     */
+    private boolean queryExists() throws SQLException, EquilibreException {
+        PreparedQuery<T1> prepared;
+        Object[] arguments = null;
+        synchronized (LOCK){
+            if (shape.isCacheable()){
+                Class<T1> dataClass = getDao().getDataClass();
+                String key = "exists|" + shape.getKey();
+                prepared = PreparedQueryCache.get(dataClass, key);
+                if (prepared == null){
+                    prepared = prepareExists(shape.build(getDao(), false, false));
+                    PreparedQueryCache.put(dataClass, key, prepared);
+                }
+                arguments = shape.getArguments();
+            }else {
+                prepared = prepareExists(replay(false));
+            }
+        }
+        return PreparedQueries.queryForFirst(getDao().getConnectionSource(), prepared, arguments,
+                StatementType.SELECT_RAW, PreparedQueries.TRUE_MAPPER, null) != null;
+    }
+
+    /**
+     * Replays the shape of a query that can not be cached on a new builder, with the where clauses of
+     * the query, so that the caller can select something else. Must be called holding {@code LOCK}.
+     *
+     * @param withRows {@code true} to keep the ordering, grouping and limits
+     * @return the builder
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     * @throws EquilibreException an exception with {@link EquilibreException#INVALID_QUERY} if the query
+     * joins other query builders or was created from a query builder, which the new builder would not hold
+     */
+    private QueryBuilder<T1, T2> replay(boolean withRows) throws SQLException, EquilibreException {
+        if (!shape.isReplayable()){
+            throw new EquilibreException(EquilibreException.INVALID_QUERY, "This query can not be replayed");
+        }
+        QueryBuilder<T1, T2> builder = shape.build(getDao(), false, withRows);
+        builder.setWhere(isWhereClauses ? wheres : null);
+        return builder;
+    }
+
+    private PreparedQuery<T1> prepareExists(QueryBuilder<T1, T2> builder) throws SQLException {
+        builder.selectRaw("1");
+        builder.limit(1L);
+        return builder.prepare();
+    }
+
+    /**
+     * The SQL aggregate functions computed by {@link #aggregate(Aggregate, String)}.
+     */
+    public enum Aggregate {
+        SUM("SUM("),
+        AVG("AVG("),
+        MIN("MIN("),
+        MAX("MAX("),
+        COUNT("COUNT("),
+        COUNT_DISTINCT("COUNT(DISTINCT ");
+
+        private final String function;
+
+        Aggregate(String function) {
+            this.function = function;
+        }
+
+        /**
+         *
+         * @return the value when no row is aggregated: {@code 0} for the sums and the counts,
+         * {@link Double#NaN} for the others
+         */
+        double whenEmpty(){
+            return this == AVG || this == MIN || this == MAX ? Double.NaN : 0;
+        }
+    }
 
     /**
-     * Find List {@link EquilibreObject}'s subclass asynchronuously
-     * <p>
-     * For example, this sample code fetches all objects of class {@code "MyClass"}. It calls a
-     * different function depending on whether the fetch succeeded or not.
-     * </p>
-     * <pre>
-     * EquilibreQuery&lt;EquilibreObject&gt; query = EquilibreQuery.getQuery(&quot;MyClass&quot;);
-     * query.findInBackground(new FindCallback&lt;EquilibreObject&gt;() {
-     *   public void done(List&lt;EquilibreObject&gt; objects, EquilibreException e) {
-     *     if (e == null) {
-     *       objectsWereRetrievedSuccessfully(objects);
-     *     } else {
-     *       objectRetrievalFailed();
-     *     }
-     *   }
-     * });
-     * </pre>
-     * @param callback this callback run on the mainthread
      *
+     * @param column the column name
+     * @return the sum of the column over the objects matching the query, {@code 0} if there is none
+     * @throws EquilibreException an exception can be thrown if something is wrong
      */
-    public void findInBackground(EquilibreCallback2 callback){
-        if (callback instanceof FindCallback){
-            EquilibreTaskUtils.callbackOnMainThreadAsync(findInBackground(), callback);
-        }else {
-            EquilibreTaskUtils.callbackOnMainThreadAsync(findOneInBackground(), callback);
-        }
+    public double sum(String column) throws EquilibreException {
+        return aggregate(Aggregate.SUM, column);
+    }
 
+    /**
+     *
+     * @param column the column name
+     * @return the average of the column over the objects matching the query, {@link Double#NaN} if there is none
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public double avg(String column) throws EquilibreException {
+        return aggregate(Aggregate.AVG, column);
     }
 
     /**
-     * Find List of {@link EquilibreObject}'s subclass in a background thread
      *
+     * @param column the column name
+     * @return the minimum of the column over the objects matching the query, {@link Double#NaN} if there is none
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public double min(String column) throws EquilibreException {
+        return aggregate(Aggregate.MIN, column);
+    }
 
-     * @return A {@link Task} that is resolved when finding completes.
+    /**
+     *
+     * @param column the column name
+     * @return the maximum of the column over the objects matching the query, {@link Double#NaN} if there is none
+     * @throws EquilibreException an exception can be thrown if something is wrong
      */
-    private Task<List<T1>> findInBackground(){
-        checkIfRunning(true);
-        return Task.callInBackground(new Callable<List<T1>>() {
-            @Override
-            public List<T1> call() throws Exception {
+    public double max(String column) throws EquilibreException {
+        return aggregate(Aggregate.MAX, column);
+    }
 
-                if (isWhereClauses) {
-                    return getQueryBuilder().query();
-                } else {
-                    return getDao().queryForAll();
-                }
+    /**
+     *
+     * @param column the column name
+     * @return the number of distinct non null values of the column over the objects matching the query
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public long countDistinct(String column) throws EquilibreException {
+        return (long) aggregate(Aggregate.COUNT_DISTINCT, column);
+    }
 
-            }
-        });
+    /**
+     * Computes the aggregate of the column over the objects matching the query with a single SQL
+     * statement, without loading the objects. The ordering and grouping of the query are ignored.
+     *
+     * @param aggregate the aggregate function
+     * @param column the column name
+     * @return the aggregate, see {@link #sum(String)}, {@link #avg(String)}, {@link #min(String)},
+     * {@link #max(String)} for the value when no object matches
+     * @throws EquilibreException an exception can be thrown if something is wrong, with
+     * {@link EquilibreException#INVALID_QUERY} if the query joins other query builders
+     */
+    public double aggregate(Aggregate aggregate, String column) throws EquilibreException {
+        return EquilibreTaskUtils.wait(aggregateInBackground(aggregate, column, false)).getValue(0);
     }
-    private Task<T1> findOneInBackground(){
-        checkIfRunning(true);
-        return Task.callInBackground(new Callable<T1>() {
-            @Override
-            public T1 call() throws Exception {
 
-                if (isWhereClauses) {
-                    return getQueryBuilder().queryForFirst();
-                } else {
-                    throw new RuntimeException("None clause used");
-                }
+    /**
+     * See {@link #aggregate(Aggregate, String)}
+     *
+     * @param aggregate the aggregate function
+     * @param column the column name
+     * @param callback this callback run on the mainthread
+     */
+    public void aggregateInBackground(Aggregate aggregate, String column, AggregateCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(aggregateInBackground(aggregate, column, false)
+                .onSuccess(new Continuation<EquilibreGroupedResult, Double>() {
+            @Override
+            public Double then(Task<EquilibreGroupedResult> task) throws Exception {
+                return task.getResult().getValue(0);
             }
-        });
+        }), callback);
     }
 
     /**
+     * Computes the aggregate of the column for every group of the columns given to {@link #groupBy(String)},
+     * with a single SQL statement, without loading the objects. The {@link #having(String)} clause and the
+     * ordering of the query apply to the groups.
      *
-     * Get a model by id synchronously
-     *
-     * @param id id of the object
-     * @return the object found
-     * @throws EquilibreException an exception can be thrown if something is wrong
+     * @param aggregate the aggregate function
+     * @param column the column name
+     * @return the value of the grouped columns and the aggregate of every group
+     * @throws EquilibreException an exception can be thrown if something is wrong, with
+     * {@link EquilibreException#INVALID_QUERY} if the query joins other query builders
      */
-    public T1 get(T2 id) throws EquilibreException {
-        return EquilibreTaskUtils.wait(getInBackground(id));
+    public EquilibreGroupedResult aggregateByGroup(Aggregate aggregate, String column) throws EquilibreException {
+        return EquilibreTaskUtils.wait(aggregateInBackground(aggregate, column, true));
     }
 
     /**
+     * See {@link #aggregateByGroup(Aggregate, String)}
      *
-     * @return List of Object found synchronously
-     * @throws EquilibreException an exception can be thrown if something is wrong
+     * @param aggregate the aggregate function
+     * @param column the column name
+     * @param callback this callback run on the mainthread
      */
-    public List<T1> find() throws EquilibreException {
-        return EquilibreTaskUtils.wait(findInBackground());
+    public void aggregateByGroupInBackground(Aggregate aggregate, String column, GroupedResultCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(aggregateInBackground(aggregate, column, true), callback);
     }
 
     /**
+     * Compute an aggregate of {@link EquilibreObject}'s subclass in a background thread
      *
-     * @return the count in the database
-     * @throws EquilibreException an exception can be thrown if something is wrong
+     * @param grouped {@code true} to compute the aggregate per group
+     * @return A {@link Task} that is resolved with the aggregates, a single row when not grouped.
      */
-    public long count() throws EquilibreException {
-        return EquilibreTaskUtils.wait(countInBackground());
+    private Task<EquilibreGroupedResult> aggregateInBackground(final Aggregate aggregate, final String column,
+                                                               final boolean grouped){
+        final List<String> groupColumns = grouped ? shape.getGroupColumns() : Collections.<String>emptyList();
+        if (grouped && groupColumns.isEmpty()){
+            throw new IllegalStateException("Call groupBy(String) before aggregating by group");
+        }
+        checkIfRunning(true);
+        return releaseWhenDone(Task.call(new Callable<EquilibreGroupedResult>() {
+            @Override
+            public EquilibreGroupedResult call() throws Exception {
+                DatabaseType databaseType = getDao().getConnectionSource().getDatabaseType();
+                TableInfo<T1, T2> tableInfo = getTableInfo();
+                String[] select = new String[groupColumns.size() + 1];
+                FieldType[] keys = new FieldType[groupColumns.size()];
+                for (int i = 0; i < keys.length; i++){
+                    keys[i] = tableInfo.getFieldTypeByColumnName(groupColumns.get(i));
+                    StringBuilder sb = new StringBuilder();
+                    databaseType.appendEscapedEntityName(sb, groupColumns.get(i));
+                    select[i] = sb.toString();
+                }
+                StringBuilder sb = new StringBuilder(aggregate.function);
+                databaseType.appendEscapedEntityName(sb, column);
+                select[keys.length] = sb.append(')').toString();
+
+                PreparedQuery<T1> prepared;
+                Object[] arguments = null;
+                synchronized (LOCK){
+                    if (shape.isCacheable()){
+                        Class<T1> dataClass = getDao().getDataClass();
+                        String key = "aggregate|" + Arrays.toString(select) + "|" + shape.getKey();
+                        prepared = PreparedQueryCache.get(dataClass, key);
+                        if (prepared == null){
+                            prepared = prepareAggregate(shape.build(getDao(), false, grouped), select);
+                            PreparedQueryCache.put(dataClass, key, prepared);
+                        }
+                        arguments = shape.getArguments();
+                    }else {
+                        prepared = prepareAggregate(replay(grouped), select);
+                    }
+                }
+                List<Object[]> rows = PreparedQueries.query(getDao().getConnectionSource(), prepared, arguments,
+                        StatementType.SELECT_RAW, new PreparedQueries.AggregateRowMapper(keys), null);
+                return new EquilibreGroupedResult(rows, aggregate.whenEmpty());
+            }
+        }, EquilibreExecutors.reader(priority)));
+    }
+
+    /**
+     * Prepares the aggregate statement on a builder replayed from the shape of the query. When not
+     * grouped, the builder only holds the where clauses: the ordering, grouping and limits of the
+     * rows do not apply to a single aggregated row.
+     */
+    private PreparedQuery<T1> prepareAggregate(QueryBuilder<T1, T2> builder, String[] select) throws SQLException {
+        builder.selectRaw(select);
+        return builder.prepare();
     }
     /**
      * Find {@link EquilibreObject}'s subclass asynchronuously
@@ -443,6 +1595,17 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      *          the callback to get the feedback after saving
      */
     public void getInBackground(final T2 id, GetCallback callback){
+        if (EquilibreLoader.isEnabled() && (session == null || session.get(getDao().getDataClass(), id) == null)){
+            // Coalesced with the other lookups of the window, see EquilibreLoader
+            Task<T1> task = EquilibreLoader.get(getDao().getDataClass(), id);
+            EquilibreTaskUtils.callbackOnMainThreadAsync(task.onSuccess(new Continuation<T1, T1>() {
+                @Override
+                public T1 then(Task<T1> task) throws Exception {
+                    return attach(task.getResult());
+                }
+            }), callback);
+            return;
+        }
         EquilibreTaskUtils.callbackOnMainThreadAsync(getInBackground(id), callback);
     }
 
@@ -454,17 +1617,129 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      * @return A {@link Task} that is resolved when getting all completes.
      */
     private Task<T1> getInBackground(final T2 id){
+        if (session != null){
+            T1 known = (T1) session.get(getDao().getDataClass(), id);
+            if (known != null){
+                return Task.forResult(known);
+            }
+        }
         checkIfRunning(true);
-        return Task.callInBackground(new Callable<T1>() {
+        return releaseWhenDone(Task.call(new Callable<T1>() {
             @Override
             public T1 call() throws Exception {
                 T1 t = (T1) getDao().queryForId(id);
 
-                return t;
+                return attach(t);
             }
-        });
+        }, EquilibreExecutors.reader(priority)));
+    }
+
+
+    /**
+     * Gets the objects with the given ids, with one {@code IN} statement per {@link #ID_CHUNK_SIZE} ids
+     * instead of one statement per id. The statements run on the read connections when they are
+     * configured, without a transaction, so when there are more than {@link #ID_CHUNK_SIZE} ids the
+     * chunks may see different states of the table.
+     *
+     * @param ids the ids of the objects
+     * @return the objects found, by id, in the order of {@code ids}; the ids without object are absent
+     * @throws EquilibreException an exception can be thrown if something is wrong
+     */
+    public Map<T2, T1> getAll(Collection<T2> ids) throws EquilibreException {
+        return EquilibreTaskUtils.wait(getAllInBackground(ids));
+    }
+
+    /**
+     * See {@link #getAll(Collection)}
+     *
+     * @param ids the ids of the objects
+     * @param callback this callback run on the mainthread
+     */
+    public void getAllInBackground(Collection<T2> ids, GetAllCallback<T1, T2> callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(getAllInBackground(ids), callback);
+    }
+
+    /**
+     * Find {@link EquilibreObject}'s subclass by ids in a background thread
+     *
+     * @param ids the ids of the objects
+     * @return A {@link Task} that is resolved with the objects found by id.
+     */
+    /* package */ Task<Map<T2, T1>> getAllInBackground(final Collection<T2> ids){
+        checkIfRunning(true);
+        return releaseWhenDone(Task.call(new Callable<Map<T2, T1>>() {
+            @Override
+            public Map<T2, T1> call() throws Exception {
+                List<T2> distinct = new ArrayList<T2>(new LinkedHashSet<T2>(ids));
+                FieldType idField = getTableInfo().getIdField();
+                Map<Object, T1> found = new HashMap<Object, T1>();
+                List<T2> missing = new ArrayList<T2>(distinct.size());
+                ObjectCache objectCache = getDao().getObjectCache();
+                for (T2 id : distinct){
+                    T1 known = session == null ? null : (T1) session.get(getDao().getDataClass(), id);
+                    if (known == null && objectCache != null){
+                        known = attach((T1) objectCache.get(getDao().getDataClass(), id));
+                    }
+                    if (known != null){
+                        found.put(id, known);
+                    }else {
+                        missing.add(id);
+                    }
+                }
+                for (int start = 0; start < missing.size(); start += ID_CHUNK_SIZE){
+                    List<T2> chunk = missing.subList(start, Math.min(start + ID_CHUNK_SIZE, missing.size()));
+                    int count = ID_CHUNK_SIZE;
+                    for (int padding : ID_CHUNK_PADDINGS){
+                        if (padding >= chunk.size()){
+                            count = padding;
+                            break;
+                        }
+                    }
+                    // The last id fills the extra placeholders, the duplicates do not change the result
+                    Object[] arguments = new Object[count];
+                    for (int i = 0; i < count; i++){
+                        arguments[i] = chunk.get(Math.min(i, chunk.size() - 1));
+                    }
+                    PreparedQuery<T1> prepared = prepareGetAll(idField, count);
+                    List<T1> objects = PreparedQueries.query(getDao().getConnectionSource(), prepared,
+                            arguments, StatementType.SELECT, prepared, getDao().getObjectCache());
+                    for (T1 object : objects){
+                        found.put(idField.extractJavaFieldValue(object), attach(object));
+                    }
+                }
+                Map<T2, T1> result = new LinkedHashMap<T2, T1>();
+                for (T2 id : distinct){
+                    T1 object = found.get(id);
+                    if (object != null){
+                        result.put(id, object);
+                    }
+                }
+                return result;
+            }
+        }, EquilibreExecutors.reader(priority)));
     }
 
+    /**
+     * Gets the {@code WHERE id IN (?, ...)} statement with {@code count} placeholders from the
+     * {@link PreparedQueryCache}, preparing it the first time. {@code count} is one of the
+     * {@link #ID_CHUNK_PADDINGS}, which keeps the number of cached statements small.
+     */
+    private PreparedQuery<T1> prepareGetAll(FieldType idField, int count) throws SQLException {
+        Class<T1> dataClass = getDao().getDataClass();
+        String key = "getAll|" + count;
+        PreparedQuery<T1> prepared = PreparedQueryCache.get(dataClass, key);
+        if (prepared == null){
+            QueryBuilder<T1, T2> builder = getDao().queryBuilder();
+            Object[] placeholders = new Object[count];
+            for (int i = 0; i < count; i++){
+                placeholders[i] = new SelectArg();
+            }
+            builder.where().in(idField.getColumnName(), placeholders);
+            prepared = builder.prepare();
+            PreparedQueryCache.put(dataClass, key, prepared);
+        }
+        return prepared;
+    }
 
     /**
      *
@@ -497,15 +1772,23 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      * @return A {@link Task} that is resolved when saving all completes.
      */
     private  Task<Void> saveInBackground(final T1 t ){
-        return taskQueue.enqueue(new Continuation<Void, Task<Void>>() {
-            @Override
-            public Task<Void> then(Task<Void> task) throws Exception {
-                return task;
-            }
-        }).continueWith(new Continuation<Void, Void>() {
+        if (EquilibreWriteBehind.isEnabled()){
+            return EquilibreWriteBehind.save(t);
+        }
+        return enqueueOnWriter(new Continuation<Void, Void>() {
             @Override
             public Void then(Task<Void> task) throws Exception {
-                int result = getDao().create(t);
+                // The id is in the filter before the row is committed, so existsById never misses it
+                int result = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext())
+                        .callInTransaction(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int result = getDao().create(t);
+                        EquilibreIdFilter.add(t);
+                        return result;
+                    }
+                });
+                onSaved(t);
                 if (result > 0) {
                     Log.d(Equilibre.TAG, t.getClass().getSimpleName() + " saved successfully with Id ==>>> " + t.getEquilibreId());
                 } else {
@@ -513,9 +1796,213 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
                 }
                 return null;
             }
-        }, Task.BACKGROUND_EXECUTOR);
+        });
+
+    }
+    /**
+     * Inserts the objects that do not exist yet and updates the others, inside a single transaction.
+     *
+     * @param objects the objects to insert or update
+     * @return the number of inserted and updated objects
+     * @throws EquilibreException an Equilibre exception can be thrown if something is wrong
+     */
+    public UpsertResult upsertAll(Collection<T1> objects) throws EquilibreException {
+        return EquilibreTaskUtils.wait(upsertAllInBackground(objects));
+    }
+
+    /**
+     * Insert or update {@link EquilibreObject}'s subclass asynchronuously
+     *
+     * @param objects
+     *        the objects to insert or update
+     * @param callback
+     *          the callback to get the number of inserted and updated objects
+     */
+    public void upsertAllInBackground(Collection<T1> objects, UpsertCallback callback){
+        EquilibreTaskUtils.callbackOnMainThreadAsync(upsertAllInBackground(objects), callback);
+    }
+
+    /**
+     * We add a task created for upserting {@link EquilibreObject}'s subclass in the TaskQueue.
+     * <p>
+     * Every object is first updated by id; only the objects whose update did not touch any row are
+     * inserted. Both statements are built once by the DAO and reused for the whole collection, and
+     * the collection is written in one transaction. Unlike {@code INSERT OR REPLACE}, the existing
+     * row is never deleted, so its other columns and the rows referencing it are preserved.
+     * </p>
+     *
+     * @param objects
+     *      the objects to insert or update
+     * @return A {@link Task} that is resolved when upserting all completes.
+     */
+    private Task<UpsertResult> upsertAllInBackground(final Collection<T1> objects){
+        return enqueueWrite(new Callable<UpsertResult>() {
+            @Override
+            public UpsertResult call() throws Exception {
+                final Dao<T1, T2> dao = getDao();
+                UpsertResult result = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext())
+                        .callInTransaction(new Callable<UpsertResult>() {
+                    @Override
+                    public UpsertResult call() throws Exception {
+                        int inserted = 0;
+                        int updated = 0;
+                        for (T1 t : objects){
+                            if (dao.extractId(t) != null && dao.update(t) > 0){
+                                updated++;
+                            }else {
+                                dao.create(t);
+                                EquilibreIdFilter.add(t);
+                                inserted++;
+                            }
+                        }
+                        return new UpsertResult(inserted, updated);
+                    }
+                });
+                for (T1 t : objects){
+                    onSaved(t);
+                }
+                Log.d(Equilibre.TAG, getClassName() + " upserted successfully ==>>> " + result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Makes the query go through the identity map of the session: the objects it reads are replaced
+     * by the instances the session already holds for their rows, and the lookups by id of rows already
+     * loaded in the session do not query the database.
+     *
+     * @param session the session, or {@code null} to stop using one
+     * @return this, so you can chain this call.
+     */
+    public EquilibreQuery<T1, T2> inSession(EquilibreSession session){
+        this.session = session;
+        return this;
+    }
+
+    /**
+     * Sets the priority of the reads and writes of this query. The work of an
+     * {@link EquilibrePriority#INTERACTIVE} query runs before the work of lower priority waiting for
+     * the same executor, the writes to a table keep their order whatever their priority.
+     *
+     * @param priority the priority, {@link EquilibrePriority#NORMAL} by default
+     * @return this, so you can chain this call.
+     */
+    public EquilibreQuery<T1, T2> withPriority(EquilibrePriority priority){
+        if (priority == null){
+            throw new IllegalArgumentException("priority must not be null");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     *
+     * @return the instance of the session for the row of the object, or the object without session
+     */
+    private T1 attach(T1 object){
+        // An object with some columns only must not become the instance of the session for its row
+        return session == null || selectedColumns != null ? object : session.attach(object);
+    }
+
+    /**
+     *
+     * @return a new list holding the instances of the session for the objects
+     */
+    private List<T1> attachAll(List<T1> objects){
+        List<T1> attached = new ArrayList<T1>(objects.size());
+        for (T1 object : objects){
+            attached.add(attach(object));
+        }
+        return attached;
+    }
+
+    /**
+     * Forgets the objects of the class held by the sessions and by the {@link EquilibreObjectCache},
+     * and the results of the {@link QueryResultCache}, after a set-based update or delete.
+     */
+    private void onTableChanged(){
+        EquilibreSession.onTableChanged(getDao().getDataClass());
+        TableVersions.bump(getDao().getDataClass());
+        if (getDao().getObjectCache() != null){
+            getDao().getObjectCache().clear(getDao().getDataClass());
+        }
+    }
+
+    /**
+     * Keeps the sessions and the {@link QueryResultCache} coherent after the object was saved.
+     */
+    private void onSaved(T1 object){
+        EquilibreSession.onSaved(object);
+        TableVersions.bump(getDao().getDataClass());
+        if (session != null){
+            session.put(object);
+        }
+    }
+
+    /**
+     * Runs the read in a background thread. When the query can be cached, the result is served by the
+     * {@link QueryResultCache} if it is enabled and the table did not change since, otherwise an identical
+     * read already in flight (same class, same statement and same arguments) is joined instead, see
+     * {@link SingleFlight}.
+     *
+     * @param kind the kind of read, which tells the reads of the same query apart
+     * @param read the read
+     * @return A {@link Task} that is resolved with the result of the read.
+     */
+    private <T> Task<T> shared(String kind, final Callable<T> read){
+        Object key = null;
+        synchronized (LOCK){
+            if (shape.isCacheable()){
+                key = Arrays.asList(getDao().getDataClass(), kind, shape.getKey(), Arrays.asList(shape.getArguments()));
+            }
+        }
+        if (key == null){
+            return Task.call(read, EquilibreExecutors.reader(priority));
+        }
+        // The version is taken before the read, so a write committed during the read makes its result
+        // stale, and a read started after the write does not join it
+        final long version = TableVersions.get(getDao().getDataClass());
+        if (!QueryResultCache.isEnabled()){
+            return SingleFlight.run(key, version, read, EquilibreExecutors.reader(priority));
+        }
+        final Object cacheKey = key;
+        T cached = (T) QueryResultCache.get(cacheKey, version);
+        if (cached != null){
+            return Task.forResult(cached);
+        }
+        return SingleFlight.run(key, version, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result = read.call();
+                QueryResultCache.put(cacheKey, version, result);
+                return result;
+            }
+        }, EquilibreExecutors.reader(priority));
+    }
 
+    /**
+     * Releases the query once the task completes, so that it can be run again.
+     *
+     * @param task the task running the query
+     * @return a task completing with the same result, after the query is released
+     */
+    private <T> Task<T> releaseWhenDone(Task<T> task){
+        return task.continueWithTask(new Continuation<T, Task<T>>() {
+            @Override
+            public Task<T> then(Task<T> task) throws Exception {
+                synchronized (lock) {
+                    isRunning = false;
+                    if (cts != null) {
+                        cts.trySetResult(null);
+                        cts = null;
+                    }
+                }
+                return task;
+            }
+        });
     }
+
     private void checkIfRunning() {
         checkIfRunning(false);
     }
@@ -541,7 +2028,9 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     public EquilibreQuery<T1, T2> whereObjectIdEquals(T2 id) throws SQLException {
         wheres = wheres.idEq(id);
+        shape.where(QueryShape.Operation.EQ, getTableInfo().getIdField().getColumnName(), id);
         queryBuilder.setWhere(wheres);
+        isWhereClauses = true;
         return this;
     }
 
@@ -555,6 +2044,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2> whereEqualTo(String key, Object value) throws SQLException {
         synchronized (LOCK){
             wheres = wheres.eq(key, value);
+            shape.where(QueryShape.Operation.EQ, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -577,6 +2067,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.ne(key, value);
+            shape.where(QueryShape.Operation.NE, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -592,7 +2083,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  orderByAscending(String key){
         checkIfRunning();
         synchronized (LOCK) {
-            this.setQueryBuilder(queryBuilder.orderBy(key, true));
+            queryBuilder.orderBy(key, true);
+            shape.orderBy(key, true);
         }
         return this;
 
@@ -606,7 +2098,30 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     public EquilibreQuery<T1, T2>  orderByDescending(String key) {
         checkIfRunning();
-        this.setQueryBuilder(queryBuilder.orderBy(key, false));
+        queryBuilder.orderBy(key, false);
+        shape.orderBy(key, false);
+        return this;
+    }
+
+    /**
+     * Restricts the columns read by the query. The objects returned by {@link #find()} only have
+     * these columns (and their id) filled, and {@link #findRows()} returns the values of these
+     * columns in this order.
+     *
+     * @param columns
+     *          The column names to read.
+     * @return this, so you can chain this call.
+     */
+    public EquilibreQuery<T1, T2>  select(String... columns){
+        checkIfRunning();
+        synchronized (LOCK) {
+            queryBuilder.selectColumns(columns);
+            shape.select(columns);
+            if (selectedColumns == null){
+                selectedColumns = new ArrayList<String>();
+            }
+            selectedColumns.addAll(Arrays.asList(columns));
+        }
         return this;
     }
 
@@ -621,7 +2136,12 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     public EquilibreQuery<T1, T2>  setLimit(Long newLimit){
         checkIfRunning();
-        this.setQueryBuilder(queryBuilder.limit(newLimit));
+        queryBuilder.limit(newLimit);
+        if (newLimit == null){
+            shape.disable();
+        }else {
+            shape.builder(QueryShape.Operation.LIMIT, null, newLimit);
+        }
         return this;
     }
 
@@ -636,6 +2156,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK) {
             wheres = wheres.lt(key, value);
+            shape.where(QueryShape.Operation.LT, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -653,7 +2174,9 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK) {
             wheres = wheres.gt(key, value);
+            shape.where(QueryShape.Operation.GT, key, value);
             this.queryBuilder.setWhere(wheres);
+            isWhereClauses = true;
         }
         return this;
     }
@@ -669,6 +2192,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.le(key, value);
+            shape.where(QueryShape.Operation.LE, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -691,6 +2215,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.ge(key, value);
+            shape.where(QueryShape.Operation.GE, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -713,6 +2238,11 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.in(key, values);
+            List<Object> list = new ArrayList<Object>();
+            for (Object value : values){
+                list.add(value);
+            }
+            shape.where(QueryShape.Operation.IN, key, list.toArray());
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -734,6 +2264,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.in(key, values);
+            shape.where(QueryShape.Operation.IN, key, values);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -755,6 +2286,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.in(key, values);
+            shape.disable();
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -777,6 +2309,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
 
         synchronized (LOCK){
             wheres = wheres.exists(queryBuilder);
+            shape.disable();
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -791,7 +2324,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
      */
     public EquilibreQuery<T1, T2>  groupBy(String key) throws SQLException {
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.groupBy(key)) ;
+            queryBuilder.groupBy(key);
+            shape.builder(QueryShape.Operation.GROUP_BY, key, 0);
         }
         return this;
     }
@@ -808,6 +2342,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.between(key, low, high);
+            shape.where(QueryShape.Operation.BETWEEN, key, low, high);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -825,6 +2360,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.like(key, value);
+            shape.where(QueryShape.Operation.LIKE, key, value);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -841,6 +2377,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.isNotNull(key);
+            shape.where(QueryShape.Operation.IS_NOT_NULL, key);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -856,6 +2393,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.or();
+            shape.combine(QueryShape.Operation.OR, 0);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -871,6 +2409,7 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
         checkIfRunning();
         synchronized (LOCK){
             wheres = wheres.and();
+            shape.combine(QueryShape.Operation.AND, 0);
             this.queryBuilder.setWhere(wheres);
             isWhereClauses = true;
         }
@@ -886,7 +2425,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  withJoin(QueryBuilder builder)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.join(builder));
+            queryBuilder.join(builder);
+            shape.disableReplay();
         }
         return this;
     }
@@ -900,7 +2440,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  withJoinOr(QueryBuilder builder)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.joinOr(builder));;
+            queryBuilder.joinOr(builder);
+            shape.disableReplay();
         }
         return this;
     }
@@ -913,7 +2454,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  distinct()throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.distinct());;
+            queryBuilder.distinct();
+            shape.builder(QueryShape.Operation.DISTINCT, null, 0);
         }
         return this;
     }
@@ -927,7 +2469,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  withLeftJoin(QueryBuilder builder)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.leftJoin(builder));;
+            queryBuilder.leftJoin(builder);
+            shape.disableReplay();
         }
         return this;
     }
@@ -941,7 +2484,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  withLeftJoinOr(QueryBuilder builder)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.leftJoinOr(builder));;
+            queryBuilder.leftJoinOr(builder);
+            shape.disableReplay();
         }
         return this;
     }
@@ -956,7 +2500,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  having(String having)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.having(having));;
+            queryBuilder.having(having);
+            shape.builder(QueryShape.Operation.HAVING, having, 0);
         }
         return this;
     }
@@ -970,7 +2515,8 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  groupByRaw(String rawSql)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.groupByRaw(rawSql));;
+            queryBuilder.groupByRaw(rawSql);
+            shape.builder(QueryShape.Operation.GROUP_BY_RAW, rawSql, 0);
         }
         return this;
     }
@@ -984,7 +2530,12 @@ public class  EquilibreQuery<T1 extends EquilibreObject, T2> {
     public EquilibreQuery<T1, T2>  setOffSet(Long startRow)throws SQLException {
         checkIfRunning();
         synchronized (LOCK){
-            this.setQueryBuilder(queryBuilder.offset(startRow));;
+            queryBuilder.offset(startRow);
+            if (startRow == null){
+                shape.disable();
+            }else {
+                shape.builder(QueryShape.Operation.OFFSET, null, startRow);
+            }
         }
         return this;
     }
@@ -0,0 +1,196 @@
+package io.github.angebagui.equilibre;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * An {@code EquilibreSession} is an identity map for a unit of work: inside a session, a row is
+ * represented by a single {@link EquilibreObject} instance. The queries given the session with
+ * {@link EquilibreQuery#inSession(EquilibreSession)} return the instance already known for an id
+ * instead of a new copy, and {@link EquilibreQuery#get(Object)} does not query the database for an
+ * id already loaded in the session.
+ * </p>
+ * <p>
+ * The saves and deletes made through Equilibre keep every open session coherent: the other instances
+ * of a saved or deleted row are evicted, and a set-based update or delete evicts the whole class.
+ * Close the session when the unit of work is done.
+ * </p>
+ * <pre>
+ * EquilibreSession session = EquilibreSession.open();
+ * try {
+ *     EquilibreQuery&lt;User, Long&gt; users = EquilibreQuery.getQuery(User.class);
+ *     User author = users.inSession(session).get(authorId);
+ *     // Same instance, no query
+ *     User same = EquilibreQuery.getQuery(User.class).inSession(session).get(authorId);
+ * } finally {
+ *     session.close();
+ * }
+ * </pre>
+ */
+public class EquilibreSession {
+
+    /**
+     * The open sessions, weakly referenced so that a session never closed can still be collected.
+     */
+    private static final Map<EquilibreSession, Boolean> sessions =
+            Collections.synchronizedMap(new WeakHashMap<EquilibreSession, Boolean>());
+
+    private final Map<Class<?>, ConcurrentMap<Object, EquilibreObject>> objects =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Object, EquilibreObject>>();
+
+    private volatile boolean closed = false;
+
+    private EquilibreSession(){
+
+    }
+
+    /**
+     * Opens a new empty session.
+     *
+     * @return the session
+     */
+    public static EquilibreSession open(){
+        EquilibreSession session = new EquilibreSession();
+        sessions.put(session, Boolean.TRUE);
+        return session;
+    }
+
+    /**
+     * Closes the session and forgets its objects.
+     */
+    public void close(){
+        closed = true;
+        sessions.remove(this);
+        objects.clear();
+    }
+
+    /**
+     *
+     * @return {@code true} if the session was closed
+     */
+    public boolean isClosed(){
+        return closed;
+    }
+
+    /**
+     * Forgets the objects of the session, which stays open.
+     */
+    public void clear(){
+        objects.clear();
+    }
+
+    /**
+     *
+     * @param subclass the {@link EquilibreObject} subclass
+     * @param id the id of the object
+     * @param <T> the EquilibreObject's subclass
+     * @return the instance of the session for the id, or {@code null} if it was not loaded in this session
+     */
+    public <T extends EquilibreObject> T get(Class<T> subclass, Object id){
+        if (id == null){
+            return null;
+        }
+        Map<Object, EquilibreObject> instances = objects.get(EquilibreObject.getRegisteredClass(subclass));
+        return instances == null ? null : (T) instances.get(id);
+    }
+
+    /**
+     * Returns the instance of the session for the row of the object, registering the object if the
+     * session does not know the row yet.
+     *
+     * @param object an object read from the database
+     * @return the instance to use in this session
+     */
+    /* package */ <T extends EquilibreObject> T attach(T object){
+        Object id = object == null ? null : object.getEquilibreId();
+        if (id == null || closed){
+            return object;
+        }
+        ConcurrentMap<Object, EquilibreObject> instances = instances(object.getClass());
+        EquilibreObject known = instances.putIfAbsent(id, object);
+        return known == null ? object : (T) known;
+    }
+
+    /**
+     * Makes the saved object the instance of the session for its row.
+     */
+    /* package */ void put(EquilibreObject object){
+        Object id = object.getEquilibreId();
+        if (id != null && !closed){
+            instances(object.getClass()).put(id, object);
+        }
+    }
+
+    private ConcurrentMap<Object, EquilibreObject> instances(Class<? extends EquilibreObject> subclass){
+        Class<?> registered = EquilibreObject.getRegisteredClass(subclass);
+        ConcurrentMap<Object, EquilibreObject> instances = objects.get(registered);
+        if (instances == null){
+            synchronized (objects){
+                instances = objects.get(registered);
+                if (instances == null){
+                    instances = new ConcurrentHashMap<Object, EquilibreObject>();
+                    objects.put(registered, instances);
+                }
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Evicts, from every open session, the other instances of the row of the saved object.
+     */
+    /* package */ static void onSaved(EquilibreObject object){
+        Object id = object.getEquilibreId();
+        if (id == null){
+            return;
+        }
+        Class<?> registered = EquilibreObject.getRegisteredClass(object.getClass());
+        for (EquilibreSession session : openSessions()){
+            Map<Object, EquilibreObject> instances = session.objects.get(registered);
+            if (instances != null && instances.get(id) != object){
+                instances.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Evicts the row from every open session.
+     */
+    /* package */ static void onDeleted(Class<? extends EquilibreObject> subclass, Object id){
+        if (id == null){
+            return;
+        }
+        Class<?> registered = EquilibreObject.getRegisteredClass(subclass);
+        for (EquilibreSession session : openSessions()){
+            Map<Object, EquilibreObject> instances = session.objects.get(registered);
+            if (instances != null){
+                instances.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Evicts every row of the class from every open session, after a set-based update or delete.
+     */
+    /* package */ static void onTableChanged(Class<? extends EquilibreObject> subclass){
+        Class<?> registered = EquilibreObject.getRegisteredClass(subclass);
+        for (EquilibreSession session : openSessions()){
+            session.objects.remove(registered);
+        }
+    }
+
+    private static List<EquilibreSession> openSessions(){
+        synchronized (sessions){
+            if (sessions.isEmpty()){
+                return Collections.emptyList();
+            }
+            return new ArrayList<EquilibreSession>(sessions.keySet());
+        }
+    }
+}
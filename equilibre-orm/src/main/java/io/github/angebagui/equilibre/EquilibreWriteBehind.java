@@ -0,0 +1,259 @@
+package io.github.angebagui.equilibre;
+
+import android.util.Log;
+
+import com.j256.ormlite.dao.Dao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * <p>
+ * The {@code EquilibreWriteBehind} class is an opt-in buffer for single saves and deletes. Once it is
+ * enabled, {@link EquilibreQuery#saveInBackground(EquilibreObject, SaveCallback)},
+ * {@link EquilibreQuery#deleteInBackground(EquilibreObject, DeleteCallback)} and the matching methods of
+ * {@link EquilibreObject} no longer write immediately: the operation is appended to an in-memory buffer
+ * and the whole buffer is committed in a single transaction every {@code flushIntervalMillis}, or as
+ * soon as it holds {@code maxOperations} operations. Callbacks are called once the transaction holding
+ * their operation has been committed. When that transaction fails, its operations are written again one
+ * at a time and only the failing ones get the error.
+ * </p>
+ * <pre>
+ * EquilibreWriteBehind.enable(200, 500);
+ * ...
+ * myObject.saveAsync(callback);
+ * ...
+ * // Blocks until every save and delete made before is committed
+ * EquilibreWriteBehind.flush();
+ * </pre>
+ */
+public class EquilibreWriteBehind {
+
+    private static final Object LOCK = new Object();
+
+    private static boolean enabled = false;
+    private static long flushIntervalMillis;
+    private static int maxOperations;
+
+    private static List<Operation> pending = new ArrayList<Operation>();
+    private static ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Flushes are committed one after the other, so a flush also waits for the ones requested before,
+     * even when their batches write to other tables.
+     */
+    private static final TaskQueue flushQueue = new TaskQueue();
+
+    private EquilibreWriteBehind(){
+
+    }
+
+    /**
+     * Enables the write-behind mode.
+     *
+     * @param flushIntervalMillis the maximum time an operation waits in the buffer before being committed
+     * @param maxOperations the number of buffered operations that triggers a commit right away
+     */
+    public static void enable(long flushIntervalMillis, int maxOperations){
+        if (flushIntervalMillis < 0){
+            throw new IllegalArgumentException("flushIntervalMillis must be positive");
+        }
+        if (maxOperations < 1){
+            throw new IllegalArgumentException("maxOperations must be greater than 0");
+        }
+        synchronized (LOCK){
+            EquilibreWriteBehind.flushIntervalMillis = flushIntervalMillis;
+            EquilibreWriteBehind.maxOperations = maxOperations;
+            enabled = true;
+        }
+    }
+
+    /**
+     * Disables the write-behind mode. The operations still in the buffer are committed in background.
+     *
+     * @return A {@link Task} that is resolved when the remaining operations are committed.
+     */
+    public static Task<Void> disable(){
+        synchronized (LOCK){
+            enabled = false;
+        }
+        return flushInBackground();
+    }
+
+    /**
+     *
+     * @return {@code true} if single saves and deletes are buffered
+     */
+    public static boolean isEnabled(){
+        synchronized (LOCK){
+            return enabled;
+        }
+    }
+
+    /**
+     * Commits the buffered operations and blocks until every operation buffered before this call
+     * is durable.
+     *
+     * @throws EquilibreException an exception can be thrown if the commit failed
+     */
+    public static void flush() throws EquilibreException {
+        EquilibreTaskUtils.wait(flushInBackground());
+    }
+
+    /**
+     * Commits the buffered operations in a background thread.
+     *
+     * @return A {@link Task} that is resolved when every operation buffered before this call is committed.
+     */
+    public static Task<Void> flushInBackground(){
+        synchronized (LOCK){
+            final List<Operation> batch = pending;
+            pending = new ArrayList<Operation>();
+            if (scheduledFlush != null){
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            // The commit also takes its turn in the write queues of the tables of the batch, so it runs
+            // between the writes enqueued before and after its operations
+            Set<TaskQueue> queues = new LinkedHashSet<TaskQueue>();
+            queues.add(flushQueue);
+            for (Operation operation : batch){
+                queues.add(TaskQueue.forTable(operation.object.getClass()));
+            }
+            return TaskQueue.enqueue(new ArrayList<TaskQueue>(queues), new Continuation<Void, Task<Void>>() {
+                @Override
+                public Task<Void> then(Task<Void> toAwait) throws Exception {
+                    return toAwait.continueWith(new Continuation<Void, Void>() {
+                        @Override
+                        public Void then(Task<Void> task) throws Exception {
+                            commit(batch);
+                            return null;
+                        }
+                    }, EquilibreExecutors.writer());
+                }
+            });
+        }
+    }
+
+    /* package */ static Task<Void> save(EquilibreObject object){
+        return enqueue(new Operation(object, false));
+    }
+
+    /* package */ static Task<Void> delete(EquilibreObject object){
+        return enqueue(new Operation(object, true));
+    }
+
+    private static Task<Void> enqueue(Operation operation){
+        boolean flushNow = false;
+        synchronized (LOCK){
+            pending.add(operation);
+            if (pending.size() >= maxOperations){
+                flushNow = true;
+            }else if (scheduledFlush == null){
+                scheduledFlush = EquilibreExecutors.scheduled().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushInBackground();
+                    }
+                }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow){
+            flushInBackground();
+        }
+        return operation.tcs.getTask();
+    }
+
+    /**
+     * Commits the batch in a single transaction. If the transaction fails, the operations are retried
+     * one at a time, so that only the callers of the failing operations get an error.
+     */
+    private static void commit(final List<Operation> batch) throws Exception {
+        if (batch.isEmpty()){
+            return;
+        }
+        final EquilibreOpenHelper helper = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext());
+        try {
+            helper.callInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (Operation operation : batch){
+                        write(helper, operation);
+                    }
+                    return null;
+                }
+            });
+        }catch (Exception e){
+            Log.w(Equilibre.TAG, " echec when flushing " + batch.size() + " buffered operations, retrying them one at a time", e);
+            Exception error = null;
+            for (final Operation operation : batch){
+                try {
+                    // In its own transaction, so that a saved id is in the filter before the commit
+                    helper.callInTransaction(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            write(helper, operation);
+                            return null;
+                        }
+                    });
+                }catch (Exception operationError){
+                    Log.e(Equilibre.TAG, " echec when writing a buffered " + operation.object.getClass().getSimpleName(), operationError);
+                    operation.tcs.setError(operationError);
+                    error = operationError;
+                    continue;
+                }
+                committed(operation);
+            }
+            if (error != null){
+                throw error;
+            }
+            return;
+        }
+        Log.d(Equilibre.TAG, batch.size() + " buffered operations committed successfully");
+        for (Operation operation : batch){
+            committed(operation);
+        }
+    }
+
+    private static void write(EquilibreOpenHelper helper, Operation operation) throws Exception {
+        Dao dao = helper.getDao(EquilibreObject.getRegisteredClass(operation.object.getClass()));
+        if (operation.delete){
+            dao.delete(operation.object);
+        }else {
+            dao.create(operation.object);
+            EquilibreIdFilter.add(operation.object);
+        }
+    }
+
+    /**
+     * Publishes a committed operation and resolves the task of its caller.
+     */
+    private static void committed(Operation operation){
+        if (operation.delete){
+            EquilibreSession.onDeleted(operation.object.getClass(), operation.object.getEquilibreId());
+        }else {
+            EquilibreSession.onSaved(operation.object);
+        }
+        TableVersions.bump(operation.object.getClass());
+        operation.tcs.setResult(null);
+    }
+
+    private static class Operation {
+        final EquilibreObject object;
+        final boolean delete;
+        final Task<Void>.TaskCompletionSource tcs = Task.create();
+
+        Operation(EquilibreObject object, boolean delete) {
+            this.object = object;
+            this.delete = delete;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * An {@code ExistsCallback} is used to run code after a {@link EquilibreQuery} is used to check
+ * whether an object matches the query in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the check happens in a
+ * background thread. This ensures that the UI does not freeze while the query happens.
+ * </p>
+ */
+public interface ExistsCallback extends EquilibreCallback2<Boolean, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the check is complete.
+     *
+     * @param exists
+     *          {@code true} if an object matches, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the query, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(Boolean exists, EquilibreException e);
+}
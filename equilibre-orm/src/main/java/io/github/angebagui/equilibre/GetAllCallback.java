@@ -0,0 +1,39 @@
+package io.github.angebagui.equilibre;
+
+import java.util.Map;
+
+/**
+ * A {@code GetAllCallback} is used to run code after a {@link EquilibreQuery} is used to fetch
+ * {@link EquilibreObject}s by their ids in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the fetch happens in a
+ * background thread. This ensures that the UI does not freeze while the fetch happens.
+ * </p>
+ * <pre>
+ * EquilibreQuery&lt;MyClass, Long&gt; query = EquilibreQuery.getQuery(MyClass.class);
+ * query.getAllInBackground(ids, new GetAllCallback&lt;MyClass, Long&gt;() {
+ *   public void done(Map&lt;Long, MyClass&gt; objects, EquilibreException e) {
+ *     if (e == null) {
+ *       objectsWereRetrievedSuccessfully(objects);
+ *     } else {
+ *       objectRetrievalFailed();
+ *     }
+ *   }
+ * });
+ * </pre>
+ *
+ * @param <T> the EquilibreObject's subclass
+ * @param <ID> the type of the ids
+ */
+public interface GetAllCallback<T extends EquilibreObject, ID> extends EquilibreCallback2<Map<ID, T>, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the fetch is complete.
+     *
+     * @param objects
+     *          The objects found by id, in the order of the ids, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the fetch, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(Map<ID, T> objects, EquilibreException e);
+}
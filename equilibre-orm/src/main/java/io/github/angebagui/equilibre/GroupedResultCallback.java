@@ -0,0 +1,22 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * A {@code GroupedResultCallback} is used to run code after a {@link EquilibreQuery} is used to compute
+ * an aggregate per group in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the aggregates are computed by the
+ * database in a background thread. This ensures that the UI does not freeze while the query happens.
+ * </p>
+ */
+public interface GroupedResultCallback extends EquilibreCallback2<EquilibreGroupedResult, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the aggregates are computed.
+     *
+     * @param result
+     *          The aggregate of every group, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the query, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(EquilibreGroupedResult result, EquilibreException e);
+}
@@ -0,0 +1,35 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * A {@code PageCallback} is used to run code after a {@link EquilibreQuery} is used to fetch a page of
+ * {@link EquilibreObject}s in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the fetch happens in a
+ * background thread. This ensures that the UI does not freeze while the fetch happens.
+ * </p>
+ * <pre>
+ * EquilibreQuery&lt;MyClass, String&gt; query = EquilibreQuery.getQuery(MyClass.class);
+ * query.pageAfterInBackground(token, 50, new PageCallback&lt;MyClass&gt;() {
+ *   public void done(EquilibrePage&lt;MyClass&gt; page, EquilibreException e) {
+ *     if (e == null) {
+ *       showPage(page.getObjects());
+ *       nextToken = page.getNextToken();
+ *     } else {
+ *       pageRetrievalFailed();
+ *     }
+ *   }
+ * });
+ * </pre>
+ */
+public interface PageCallback<T extends EquilibreObject> extends EquilibreCallback2<EquilibrePage<T>, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the fetch is complete.
+     *
+     * @param page
+     *          The page that was retrieved, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the fetch, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(EquilibrePage<T> page, EquilibreException e);
+}
@@ -0,0 +1,203 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.ObjectCache;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.stmt.GenericRowMapper;
+import com.j256.ormlite.stmt.PreparedStmt;
+import com.j256.ormlite.stmt.StatementBuilder.StatementType;
+import com.j256.ormlite.support.CompiledStatement;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.support.DatabaseResults;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs prepared statements without going through the DAO, so that the rows can be mapped to
+ * something else than the queried class.
+ */
+/** package */ class PreparedQueries {
+
+    private PreparedQueries(){
+
+    }
+
+    /**
+     * Maps the first column of the row to a {@link Long}, to read the result of a {@code COUNT}.
+     */
+    /* package */ static final GenericRowMapper<Long> LONG_MAPPER = new GenericRowMapper<Long>() {
+        @Override
+        public Long mapRow(DatabaseResults results) throws SQLException {
+            return results.getLong(0);
+        }
+    };
+
+    /**
+     * Maps any row to {@link Boolean#TRUE}, to tell whether a row exists.
+     */
+    /* package */ static final GenericRowMapper<Boolean> TRUE_MAPPER = new GenericRowMapper<Boolean>() {
+        @Override
+        public Boolean mapRow(DatabaseResults results) throws SQLException {
+            return Boolean.TRUE;
+        }
+    };
+
+    /**
+     * Runs the prepared statement and maps every row with the mapper.
+     *
+     * @param connectionSource the source of the read connection
+     * @param prepared the statement to run
+     * @param arguments the values of the placeholders of the statement, {@code null} if it has none to bind
+     * @param type the type the statement was prepared as
+     * @param mapper converts each row
+     * @param objectCache the cache given to the results, can be {@code null}
+     * @param <R> the type of the mapped rows
+     * @return the mapped rows
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    /* package */ static <R> List<R> query(ConnectionSource connectionSource, PreparedStmt<?> prepared,
+                                           Object[] arguments, StatementType type, GenericRowMapper<R> mapper,
+                                           ObjectCache objectCache) throws SQLException {
+        List<R> rows = new ArrayList<R>();
+        run(connectionSource, prepared, arguments, type, mapper, objectCache, rows, false);
+        return rows;
+    }
+
+    /**
+     * Runs the prepared statement and gives every row to the mapper, without keeping the mapped rows.
+     *
+     * @param connectionSource the source of the read connection
+     * @param prepared the statement to run, which has no placeholder to bind
+     * @param type the type the statement was prepared as
+     * @param mapper called with each row
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    /* package */ static void forEach(ConnectionSource connectionSource, PreparedStmt<?> prepared,
+                                      StatementType type, GenericRowMapper<?> mapper) throws SQLException {
+        run(connectionSource, prepared, null, type, mapper, null, null, false);
+    }
+
+    /**
+     * Runs the prepared statement and maps its first row with the mapper.
+     *
+     * @return the first mapped row, or {@code null} if there is no row
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     * @see #query(ConnectionSource, PreparedStmt, Object[], StatementType, GenericRowMapper, ObjectCache)
+     */
+    /* package */ static <R> R queryForFirst(ConnectionSource connectionSource, PreparedStmt<?> prepared,
+                                             Object[] arguments, StatementType type, GenericRowMapper<R> mapper,
+                                             ObjectCache objectCache) throws SQLException {
+        List<R> rows = new ArrayList<R>(1);
+        run(connectionSource, prepared, arguments, type, mapper, objectCache, rows, true);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Sets the values of the placeholders of a statement shared through the {@link PreparedQueryCache}.
+     * The values are read when the statement is compiled, so the caller must hold the lock of the
+     * statement until it is compiled.
+     *
+     * @param prepared the statement
+     * @param arguments the values, in the order of the placeholders
+     * @throws SQLException an SQL exception can be thrown if something is wrong
+     */
+    /* package */ static void bind(PreparedStmt<?> prepared, Object[] arguments) throws SQLException {
+        for (int i = 0; i < arguments.length; i++){
+            prepared.setArgumentHolderValue(i, arguments[i]);
+        }
+    }
+
+    /**
+     * Runs the prepared statement and adds the mapped rows to {@code rows}, unless it is {@code null}.
+     */
+    private static <R> void run(ConnectionSource connectionSource, PreparedStmt<?> prepared,
+                                Object[] arguments, StatementType type, GenericRowMapper<R> mapper,
+                                ObjectCache objectCache, List<R> rows, boolean firstOnly) throws SQLException {
+        // Runs on a read connection when they are configured
+        ConnectionSource source = EquilibreOpenHelper.getHelper(EquilibrePlugins.Android.get().applicationContext())
+                .readConnectionSource(connectionSource);
+        DatabaseConnection connection = source.getReadOnlyConnection();
+        CompiledStatement statement = null;
+        DatabaseResults results = null;
+        try {
+            if (arguments == null){
+                statement = prepared.compile(connection, type);
+            }else {
+                synchronized (prepared){
+                    bind(prepared, arguments);
+                    statement = prepared.compile(connection, type);
+                }
+            }
+            results = statement.runQuery(objectCache);
+            if (results.first()){
+                do {
+                    R row = mapper.mapRow(results);
+                    if (rows != null){
+                        rows.add(row);
+                    }
+                } while (!firstOnly && results.next());
+            }
+        } finally {
+            if (results != null){
+                results.closeQuietly();
+            }
+            if (statement != null){
+                statement.closeQuietly();
+            }
+            source.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Maps each row of an aggregate query to an array holding the values of the grouped columns,
+     * converted to their Java type, followed by the aggregate as a {@link Double}, {@code null} when the
+     * aggregate is {@code NULL}.
+     */
+    /* package */ static class AggregateRowMapper implements GenericRowMapper<Object[]> {
+
+        private final FieldType[] groupColumns;
+        private final Map<String, Integer> columnPositions = new HashMap<String, Integer>();
+
+        AggregateRowMapper(FieldType[] groupColumns) {
+            this.groupColumns = groupColumns;
+        }
+
+        @Override
+        public Object[] mapRow(DatabaseResults results) throws SQLException {
+            Object[] row = new Object[groupColumns.length + 1];
+            for (int i = 0; i < groupColumns.length; i++){
+                row[i] = groupColumns[i].resultToJava(results, columnPositions);
+            }
+            double value = results.getDouble(groupColumns.length);
+            row[groupColumns.length] = results.wasNull(groupColumns.length) ? null : value;
+            return row;
+        }
+    }
+
+    /**
+     * Maps each row to an array holding the values of the given columns, converted to their Java
+     * type, without creating the entity.
+     */
+    /* package */ static class ColumnsRowMapper implements GenericRowMapper<Object[]> {
+
+        private final FieldType[] columns;
+        private final Map<String, Integer> columnPositions = new HashMap<String, Integer>();
+
+        ColumnsRowMapper(FieldType[] columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public Object[] mapRow(DatabaseResults results) throws SQLException {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++){
+                row[i] = columns[i].resultToJava(results, columnPositions);
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.stmt.PreparedQuery;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The {@code PreparedQueryCache} keeps the prepared statements of the queries run through
+ * {@link EquilibreQuery}, per queried class, keyed by the shape of the query: its where clauses,
+ * ordering, grouping and limits, without the compared values. The values are bound to placeholders
+ * at each execution, so running the same query shape again with other values skips the SQL
+ * generation and the statement preparation.
+ * </p>
+ * Queries joining other query builders, or comparing to {@code null} or to another object, are not
+ * cached.
+ */
+public class PreparedQueryCache {
+
+    /**
+     * The number of query shapes kept per class, the least recently used is removed first.
+     */
+    public static final int MAX_SHAPES_PER_CLASS = 64;
+
+    private static final Map<Class<?>, Map<String, PreparedQuery<?>>> caches =
+            new ConcurrentHashMap<Class<?>, Map<String, PreparedQuery<?>>>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private PreparedQueryCache(){
+
+    }
+
+    /* package */ static <T> PreparedQuery<T> get(Class<T> dataClass, String shape){
+        PreparedQuery<?> prepared = getCache(dataClass).get(shape);
+        if (prepared == null){
+            misses.incrementAndGet();
+        }else {
+            hits.incrementAndGet();
+        }
+        return (PreparedQuery<T>) prepared;
+    }
+
+    /* package */ static <T> void put(Class<T> dataClass, String shape, PreparedQuery<T> prepared){
+        getCache(dataClass).put(shape, prepared);
+    }
+
+    private static Map<String, PreparedQuery<?>> getCache(Class<?> dataClass){
+        Map<String, PreparedQuery<?>> cache = caches.get(dataClass);
+        if (cache == null){
+            synchronized (caches){
+                cache = caches.get(dataClass);
+                if (cache == null){
+                    cache = Collections.synchronizedMap(new LinkedHashMap<String, PreparedQuery<?>>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery<?>> eldest) {
+                            return size() > MAX_SHAPES_PER_CLASS;
+                        }
+                    });
+                    caches.put(dataClass, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     *
+     * @return the number of executions that reused a prepared statement
+     */
+    public static long getHitCount(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of executions that had to prepare their statement
+     */
+    public static long getMissCount(){
+        return misses.get();
+    }
+
+    /**
+     * Removes every prepared statement and resets the counters.
+     */
+    public static void clear(){
+        caches.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.angebagui.equilibre;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The {@code QueryResultCache} keeps the results of {@link EquilibreQuery#find()},
+ * {@link EquilibreQuery#count()} and of the first-object lookups, keyed by the statement of the query and
+ * its arguments. A result is served as long as no write was made to its table through Equilibre since
+ * it was read: every table carries a version increased by each committed save, update or delete.
+ * </p>
+ * <p>
+ * The cache is disabled by default. It holds at most {@code maxRows} rows, counting one per object of
+ * a list result and one per count; the least recently used results are evicted first. The objects of
+ * a cached list are shared by the callers, do not modify them without saving them. Writes made
+ * with raw SQL are not seen: call {@link #clear()} after them.
+ * </p>
+ * <pre>
+ * QueryResultCache.enable(5000);
+ * </pre>
+ */
+public class QueryResultCache {
+
+    private static final Object LOCK = new Object();
+
+    private static boolean enabled = false;
+    private static int maxRows;
+    private static int rows = 0;
+
+    private static final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private QueryResultCache(){
+
+    }
+
+    /**
+     * Enables the cache.
+     *
+     * @param maxRows the maximum number of rows held by the cached results
+     */
+    public static void enable(int maxRows){
+        if (maxRows < 1){
+            throw new IllegalArgumentException("maxRows must be greater than 0");
+        }
+        synchronized (LOCK){
+            QueryResultCache.maxRows = maxRows;
+            enabled = true;
+            evict();
+        }
+    }
+
+    /**
+     * Disables the cache and removes every result.
+     */
+    public static void disable(){
+        synchronized (LOCK){
+            enabled = false;
+            entries.clear();
+            rows = 0;
+        }
+    }
+
+    /**
+     *
+     * @return {@code true} if the results are cached
+     */
+    public static boolean isEnabled(){
+        synchronized (LOCK){
+            return enabled;
+        }
+    }
+
+    /**
+     * Removes every result and resets the counters.
+     */
+    public static void clear(){
+        synchronized (LOCK){
+            entries.clear();
+            rows = 0;
+        }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     *
+     * @return the number of reads served by the cache
+     */
+    public static long getHitCount(){
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return the number of reads that were not in the cache, or whose table changed
+     */
+    public static long getMissCount(){
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return the number of results evicted to stay under the maximum number of rows
+     */
+    public static long getEvictionCount(){
+        return evictions.get();
+    }
+
+    /**
+     *
+     * @param key the statement and the arguments of the read
+     * @param version the current version of the table
+     * @return the result read at this version, or {@code null}
+     */
+    /* package */ static Object get(Object key, long version){
+        synchronized (LOCK){
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version != version){
+                // The table changed since the result was read
+                entries.remove(key);
+                rows -= entry.rows;
+                entry = null;
+            }
+            if (entry == null){
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Keeps the result read at the version of its table, taken before the read started.
+     */
+    /* package */ static void put(Object key, long version, Object value){
+        if (value == null){
+            return;
+        }
+        int size = value instanceof Collection ? Math.max(1, ((Collection<?>) value).size()) : 1;
+        synchronized (LOCK){
+            if (!enabled || size > maxRows){
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(version, value, size));
+            if (previous != null){
+                rows -= previous.rows;
+            }
+            rows += size;
+            evict();
+        }
+    }
+
+    private static void evict(){
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (rows > maxRows && iterator.hasNext()){
+            Entry eldest = iterator.next();
+            iterator.remove();
+            rows -= eldest.rows;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static class Entry {
+        final long version;
+        final Object value;
+        final int rows;
+
+        Entry(long version, Object value, int rows) {
+            this.version = version;
+            this.value = value;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.ArgumentHolder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the clauses, ordering and limits added to an {@link EquilibreQuery}, without their values.
+ * Two queries with the same shape produce the same SQL, only the values bound to the placeholders
+ * change, so the shape is used as the key of the {@link PreparedQueryCache}.
+ */
+/** package */ class QueryShape {
+
+    enum Operation {
+        EQ, NE, LT, GT, LE, GE, LIKE, BETWEEN, IN, IS_NOT_NULL, AND, OR, AND_MANY, OR_MANY,
+        ORDER_BY, LIMIT, OFFSET, GROUP_BY, GROUP_BY_RAW, HAVING, DISTINCT, SELECT
+    }
+
+    private final List<Step> steps = new ArrayList<Step>();
+    private final List<Object> arguments = new ArrayList<Object>();
+    private boolean cacheable = true;
+    private boolean replayable = true;
+    private String key;
+
+    /**
+     * Records a where operation and the values bound to it.
+     */
+    void where(Operation operation, String column, Object... values){
+        for (Object value : values){
+            if (value == null || value instanceof ArgumentHolder || value instanceof EquilibreObject){
+                // The value can not be bound to a placeholder the usual way
+                disable();
+            }
+            arguments.add(value);
+        }
+        add(new Step(operation, column, values.length));
+    }
+
+    /**
+     * Records a where operation absorbing the given number of clauses.
+     */
+    void combine(Operation operation, int clauses){
+        add(new Step(operation, null, clauses));
+    }
+
+    /**
+     * Records an operation on the query builder.
+     */
+    void builder(Operation operation, String value, long number){
+        add(new Step(operation, value, number));
+    }
+
+    void select(String... columns){
+        for (String column : columns){
+            add(new Step(Operation.SELECT, column, 0));
+        }
+    }
+
+    void orderBy(String column, boolean ascending){
+        add(new Step(Operation.ORDER_BY, column, ascending ? 1 : 0));
+    }
+
+    /**
+     * Marks the query as impossible to cache, for example because it compares to {@code null}.
+     */
+    void disable(){
+        cacheable = false;
+    }
+
+    /**
+     * Marks the query builder as holding something the shape does not record, such as a join: a
+     * builder replayed from the shape, even with the where clauses of the query, would not be the same
+     * query. The query can not be cached either.
+     */
+    void disableReplay(){
+        cacheable = false;
+        replayable = false;
+    }
+
+    boolean isCacheable(){
+        return cacheable;
+    }
+
+    /**
+     *
+     * @return {@code true} if a builder replayed from the shape and given the where clauses of the
+     * query selects the same rows as the query
+     */
+    boolean isReplayable(){
+        return replayable;
+    }
+
+    /**
+     *
+     * @return {@code true} if a where clause was recorded
+     */
+    boolean hasWhere(){
+        for (Step step : steps){
+            if (step.operation.ordinal() <= Operation.OR_MANY.ordinal()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return a shape holding the same steps and arguments, which can be extended without changing this one
+     */
+    QueryShape copy(){
+        QueryShape copy = new QueryShape();
+        copy.steps.addAll(steps);
+        copy.arguments.addAll(arguments);
+        copy.cacheable = cacheable;
+        copy.replayable = replayable;
+        copy.key = key;
+        return copy;
+    }
+
+    /**
+     *
+     * @return the values to bind to the placeholders of the statement built by {@link #build(Dao)}
+     */
+    Object[] getArguments(){
+        return arguments.toArray();
+    }
+
+    /**
+     *
+     * @return the normalized form of the query, equal for every query producing the same SQL
+     */
+    String getKey(){
+        if (key == null){
+            StringBuilder sb = new StringBuilder();
+            for (Step step : steps){
+                sb.append(step.operation).append('(');
+                if (step.value != null){
+                    sb.append(step.value).append(',');
+                }
+                sb.append(step.number).append(')');
+            }
+            key = sb.toString();
+        }
+        return key;
+    }
+
+    /**
+     *
+     * @return the columns given to {@code groupBy}, in order
+     */
+    List<String> getGroupColumns(){
+        List<String> columns = new ArrayList<String>();
+        for (Step step : steps){
+            if (step.operation == Operation.GROUP_BY){
+                columns.add(step.value);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Replays the shape on a new query builder, with a {@link SelectArg} placeholder for every value.
+     * The builder does not share anything with the query the shape was recorded from.
+     */
+    <T, ID> QueryBuilder<T, ID> build(Dao<T, ID> dao) throws SQLException {
+        return build(dao, true, true);
+    }
+
+    /**
+     * Same as {@link #build(Dao)}, without the selected columns if {@code withColumns} is {@code false},
+     * so that the caller can select something else, and without the ordering, grouping and limits if
+     * {@code withRows} is {@code false}, so that only the where clauses remain.
+     */
+    <T, ID> QueryBuilder<T, ID> build(Dao<T, ID> dao, boolean withColumns, boolean withRows) throws SQLException {
+        QueryBuilder<T, ID> builder = dao.queryBuilder();
+        Where<T, ID> where = builder.where();
+        boolean hasWhere = false;
+        for (Step step : steps){
+            if (step.operation == Operation.SELECT && !withColumns){
+                continue;
+            }
+            if (step.operation.ordinal() > Operation.OR_MANY.ordinal() && step.operation != Operation.SELECT
+                    && !withRows){
+                continue;
+            }
+            switch (step.operation){
+                case EQ:
+                    where.eq(step.value, new SelectArg());
+                    break;
+                case NE:
+                    where.ne(step.value, new SelectArg());
+                    break;
+                case LT:
+                    where.lt(step.value, new SelectArg());
+                    break;
+                case GT:
+                    where.gt(step.value, new SelectArg());
+                    break;
+                case LE:
+                    where.le(step.value, new SelectArg());
+                    break;
+                case GE:
+                    where.ge(step.value, new SelectArg());
+                    break;
+                case LIKE:
+                    where.like(step.value, new SelectArg());
+                    break;
+                case BETWEEN:
+                    where.between(step.value, new SelectArg(), new SelectArg());
+                    break;
+                case IN:
+                    Object[] placeholders = new Object[(int) step.number];
+                    for (int i = 0; i < placeholders.length; i++){
+                        placeholders[i] = new SelectArg();
+                    }
+                    where.in(step.value, placeholders);
+                    break;
+                case IS_NOT_NULL:
+                    where.isNotNull(step.value);
+                    break;
+                case AND:
+                    where.and();
+                    break;
+                case OR:
+                    where.or();
+                    break;
+                case AND_MANY:
+                    where.and((int) step.number);
+                    break;
+                case OR_MANY:
+                    where.or((int) step.number);
+                    break;
+                case ORDER_BY:
+                    builder.orderBy(step.value, step.number == 1);
+                    break;
+                case LIMIT:
+                    builder.limit(step.number);
+                    break;
+                case OFFSET:
+                    builder.offset(step.number);
+                    break;
+                case GROUP_BY:
+                    builder.groupBy(step.value);
+                    break;
+                case GROUP_BY_RAW:
+                    builder.groupByRaw(step.value);
+                    break;
+                case HAVING:
+                    builder.having(step.value);
+                    break;
+                case DISTINCT:
+                    builder.distinct();
+                    break;
+                case SELECT:
+                    builder.selectColumns(step.value);
+                    break;
+            }
+            if (step.operation.ordinal() <= Operation.OR_MANY.ordinal()){
+                hasWhere = true;
+            }
+        }
+        builder.setWhere(hasWhere ? where : null);
+        return builder;
+    }
+
+    private void add(Step step){
+        steps.add(step);
+        key = null;
+    }
+
+    private static class Step {
+        final Operation operation;
+        final String value;
+        final long number;
+
+        Step(Operation operation, String value, long number) {
+            this.operation = operation;
+            this.value = value;
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.angebagui.equilibre;
+
+import java.util.List;
+
+/**
+ * A {@code RowsCallback} is used to run code after a {@link EquilibreQuery} is used to fetch the
+ * values of some columns, without creating the {@link EquilibreObject}s, in a background thread.
+ * <p>
+ * The {@code done} function will be run in the UI thread, while the fetch happens in a
+ * background thread. This ensures that the UI does not freeze while the fetch happens.
+ * </p>
+ * <pre>
+ * EquilibreQuery&lt;MyClass, String&gt; query = EquilibreQuery.getQuery(MyClass.class);
+ * query.select("name", "email").findRowsInBackground(new RowsCallback() {
+ *   public void done(List&lt;Object[]&gt; rows, EquilibreException e) {
+ *     if (e == null) {
+ *       rowsWereRetrievedSuccessfully(rows);
+ *     } else {
+ *       rowRetrievalFailed();
+ *     }
+ *   }
+ * });
+ * </pre>
+ */
+public interface RowsCallback extends EquilibreCallback2<List<Object[]>, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the fetch is complete.
+     *
+     * @param rows
+     *          The values of the selected columns, one array per row, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the fetch, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(List<Object[]> rows, EquilibreException e);
+}
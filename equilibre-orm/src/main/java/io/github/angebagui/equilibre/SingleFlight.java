@@ -0,0 +1,84 @@
+package io.github.angebagui.equilibre;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Shares the execution of identical reads running at the same time: a read asked while the same read
+ * (same table, same statement and same arguments) is in flight waits for it and gets its result,
+ * instead of querying the database again. A read that starts after the shared one completed runs again,
+ * and so does a read that starts after a write to the table was committed: the version of the table is
+ * part of the key, so it never gets a result read before its own writes.
+ */
+/** package */ class SingleFlight {
+
+    private static final Map<Object, Flight> flights = new HashMap<Object, Flight>();
+
+    private SingleFlight(){
+
+    }
+
+    /**
+     * Runs the read on the executor, or joins the identical read in flight.
+     *
+     * @param read identifies the read, must implement {@code equals} and {@code hashCode} on its values
+     * @param version the version of the table, see {@link TableVersions#get(Class)}, taken before the read
+     * @param callable the read to run if none is in flight
+     * @param executor the executor of the read, the one of the first caller when it is shared
+     * @param <T> the type of the result
+     * @return A {@link Task} that is resolved with the result of the shared read.
+     */
+    static <T> Task<T> run(Object read, long version, final Callable<T> callable, Executor executor){
+        final Object key = Arrays.asList(read, version);
+        final Task<T>.TaskCompletionSource tcs = Task.create();
+        final Flight flight;
+        synchronized (flights){
+            Flight inFlight = flights.get(key);
+            if (inFlight != null){
+                inFlight.callers++;
+                return (Task<T>) inFlight.task;
+            }
+            flight = new Flight(tcs.getTask());
+            flights.put(key, flight);
+        }
+        Task.call(callable, executor).continueWith(new Continuation<T, Void>() {
+            @Override
+            public Void then(Task<T> task) throws Exception {
+                int callers;
+                synchronized (flights){
+                    flights.remove(key);
+                    callers = flight.callers;
+                }
+                if (callers > 1){
+                    Log.d(Equilibre.TAG, "One read shared by " + callers + " callers");
+                }
+                if (task.isCancelled()){
+                    tcs.setCancelled();
+                }else if (task.isFaulted()){
+                    tcs.setError(task.getError());
+                }else {
+                    tcs.setResult(task.getResult());
+                }
+                return null;
+            }
+        });
+        return tcs.getTask();
+    }
+
+    private static class Flight {
+        final Task<?> task;
+        int callers = 1;
+
+        Flight(Task<?> task) {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.angebagui.equilibre;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version per table, increased after every committed write made through Equilibre. A result read at
+ * a version stays valid as long as the version of its table did not change.
+ */
+/** package */ class TableVersions {
+
+    private static final Map<Class<?>, AtomicLong> versions = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    private TableVersions(){
+
+    }
+
+    /**
+     *
+     * @return the current version of the table of the class
+     */
+    static long get(Class<? extends EquilibreObject> subclass){
+        return version(subclass).get();
+    }
+
+    /**
+     * Increases the version of the table of the class and schedules the {@link EquilibreObservation}s
+     * of the table. Must be called once the write is committed, so that a read running at the same
+     * time can not be tagged with the new version.
+     */
+    static void bump(Class<? extends EquilibreObject> subclass){
+        version(subclass).incrementAndGet();
+        EquilibreObservation.onTableChanged(EquilibreObject.getRegisteredClass(subclass));
+    }
+
+    private static AtomicLong version(Class<? extends EquilibreObject> subclass){
+        Class<?> registered = EquilibreObject.getRegisteredClass(subclass);
+        AtomicLong version = versions.get(registered);
+        if (version == null){
+            synchronized (versions){
+                version = versions.get(registered);
+                if (version == null){
+                    version = new AtomicLong();
+                    versions.put(registered, version);
+                }
+            }
+        }
+        return version;
+    }
+}
@@ -4,46 +4,91 @@ package io.github.angebagui.equilibre;
  * Created by angebagui on 20/08/2015.
  */
 
-import java.util.Arrays;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bolts.Continuation;
 import bolts.Task;
 
 /**
  * A helper class for enqueueing tasks
+ * <p>
+ * The tasks wait in a lock-free queue, filled by any number of threads. A single drain at a time
+ * gives its turn to the task at the head of the queue and, once it completes, to the next one: the
+ * tasks run one after the other, in the order they were enqueued.
+ * </p>
  */
 public class TaskQueue {
 
     /**
-     * We only need to keep the tail of the queue. Cancelled tasks will just complete
-     * normally/immediately when their turn arrives.
+     * The write queues of the tables, shared by every {@link EquilibreQuery} of a class.
      */
-    private Task<Void> tail;
-    private final Lock lock = new ReentrantLock();
+    private static final Map<Class<?>, TaskQueue> tableQueues = new ConcurrentHashMap<Class<?>, TaskQueue>();
 
     /**
-     * Gets a task that can be safely awaited and is dependent on the current tail of the queue. This
-     * essentially gives us a proxy for the tail end of the queue that can be safely cancelled.
+     * Held while a task is added to several queues.
+     */
+    private static final Object ENQUEUE_LOCK = new Object();
+
+    /**
+     * The tasks waiting for their turn. Cancelled tasks will just complete normally/immediately when
+     * their turn arrives.
+     */
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+
+    /**
+     * The number of enqueued tasks not completed yet. The thread that increments it from 0 starts the
+     * drain, the drain stops when it decrements it back to 0.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * Resumes the drain once the task that had its turn completes.
+     */
+    private final Continuation<Object, Void> resume = new Continuation<Object, Void>() {
+        @Override
+        public Void then(Task<Object> task) throws Exception {
+            if (completed()){
+                drain();
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Gets the write queue of the table of the class: the writes to a table run in the order they were
+     * enqueued, whatever the query used to enqueue them.
      *
-     * @return A new task that should be awaited by enqueued tasks.
+     * @param subclass the {@link EquilibreObject} subclass
+     * @return the queue of its table
      */
-    private Task<Void> getTaskToWait(){
-        lock.lock();
-        try{
-            Task<Void> toAwait = tail!=null?tail:Task.<Void>forResult(null);
-            return toAwait.continueWith(new Continuation<Void, Void>() {
-                @Override
-                public Void then(Task<Void> task) throws Exception {
-                    return null;
+    /* package */ static TaskQueue forTable(Class<? extends EquilibreObject> subclass){
+        Class<?> registered = EquilibreObject.getRegisteredClass(subclass);
+        TaskQueue queue = tableQueues.get(registered);
+        if (queue == null){
+            synchronized (tableQueues){
+                queue = tableQueues.get(registered);
+                if (queue == null){
+                    queue = new TaskQueue();
+                    tableQueues.put(registered, queue);
                 }
-            });
-        }finally {
-            lock.unlock();
+            }
         }
+        return queue;
     }
 
+    /**
+     *
+     * @return the number of enqueued tasks not completed yet
+     */
+    public int getDepth(){
+        return depth.get();
+    }
 
     /**
      * Enqueues a task created by taskStart.
@@ -57,31 +102,92 @@ public class TaskQueue {
      */
 
     public <T> Task<T> enqueue(Continuation<Void, Task<T>> taskStart){
-        lock.lock();
+        // The task created by taskStart is responsible for waiting for the task passed into it before
+        // doing its work (this gives it an opportunity to do startup work or save state before
+        // waiting for its turn in the queue)
+        Task<Void>.TaskCompletionSource turn = Task.create();
+        Task<T> task;
         try {
-            Task<T> task;
-            Task<Void> oldTail = tail!=null?tail:Task.<Void> forResult(null);
-            // The task created by taskStart is responsible for waiting for the task passed into it before
-            // doing its work (this gives it an opportunity to do startup work or save state before
-            // waiting for its turn in the queue)
+            task = taskStart.then(turn.getTask());
+        }catch (RuntimeException e){
+            throw e;
+        }catch (Exception e) {
+            throw new RuntimeException(e);
+        }
 
+        entries.offer(new Entry(turn, task));
+        if (depth.getAndIncrement() == 0){
+            drain();
+        }
+        return task;
+    }
+
+    /**
+     * Enqueues a task created by taskStart in several queues at once: the task awaited by taskStart
+     * completes once the task has its turn in every queue. The task is added to all the queues before
+     * another task can be added to more than one, so two such tasks are in the same order in every
+     * queue they share and never wait for each other.
+     *
+     * @param queues the queues, without duplicates
+     * @param taskStart see {@link #enqueue(Continuation)}
+     * @param <T> the type of the result of the task
+     * @return The task created by the taskStart function.
+     */
+    /* package */ static <T> Task<T> enqueue(List<TaskQueue> queues, Continuation<Void, Task<T>> taskStart){
+        synchronized (ENQUEUE_LOCK){
+            return enqueue(queues, 0, new ArrayList<Task<Void>>(queues.size()), taskStart);
+        }
+    }
+
+    private static <T> Task<T> enqueue(final List<TaskQueue> queues, final int index, final List<Task<Void>> turns,
+                                       final Continuation<Void, Task<T>> taskStart){
+        if (index == queues.size()){
             try {
-                Task<Void> toAwait = getTaskToWait();
-                task = taskStart.then(toAwait);
+                return taskStart.then(Task.whenAll(turns));
             }catch (RuntimeException e){
                 throw e;
             }catch (Exception e) {
                 throw new RuntimeException(e);
             }
+        }
+        return queues.get(index).enqueue(new Continuation<Void, Task<T>>() {
+            @Override
+            public Task<T> then(Task<Void> toAwait) throws Exception {
+                turns.add(toAwait);
+                return enqueue(queues, index + 1, turns, taskStart);
+            }
+        });
+    }
 
-            // The tail task should be dependent on the old tail as well as the newly-created task. This
-            // prevents cancellation of the new task from causing the queue to run out of order.
-            tail = Task.whenAll(Arrays.asList(oldTail, task));
-            return task;
+    /**
+     * Gives their turn to the enqueued tasks, one after the other. Only one drain runs at a time: it
+     * returns when it has to wait for a task, and the completion of that task resumes it.
+     */
+    private void drain(){
+        do {
+            // The entry was offered before the depth was incremented
+            Entry entry = entries.poll();
+            entry.turn.setResult(null);
+            if (!entry.task.isCompleted()){
+                ((Task<Object>) entry.task).continueWith(resume);
+                return;
+            }
+        } while (completed());
+    }
 
-        }finally {
-            lock.unlock();
+    /**
+     * Counts a completed task.
+     *
+     * @return {@code true} if other tasks are waiting for their turn
+     */
+    private boolean completed(){
+        if (depth.decrementAndGet() > 0){
+            return true;
         }
+        synchronized (this){
+            notifyAll();
+        }
+        return false;
     }
 
     /**
@@ -106,23 +212,28 @@ public class TaskQueue {
         };
     }
 
-    Lock getLock(){
-        return lock;
-    }
-
     /**
      *
      * @throws InterruptedException an exception
      */
     public void waitUntilFinished()throws InterruptedException{
-        lock.lock();
-        try {
-            if (tail == null){
-                return;
+        synchronized (this){
+            while (depth.get() > 0){
+                wait();
             }
-            tail.waitForCompletion();
-        }finally {
-            lock.unlock();
+        }
+    }
+
+    /**
+     * A task waiting in the queue, with the task that tells it its turn arrived.
+     */
+    private static class Entry {
+        final Task<Void>.TaskCompletionSource turn;
+        final Task<?> task;
+
+        Entry(Task<Void>.TaskCompletionSource turn, Task<?> task) {
+            this.turn = turn;
+            this.task = task;
         }
     }
 }
@@ -0,0 +1,36 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * An {@code UpsertCallback} is used to run code after a {@link EquilibreQuery} inserted or updated a
+ * collection of {@link EquilibreObject}s in a background thread.
+ * <p>
+ * The easiest way to use an {@code UpsertCallback} is through an anonymous inner class. Override the
+ * {@code done} function to specify what the callback should do after the upsert is complete.
+ * The {@code done} function will be run in the UI thread, while the upsert happens in a
+ * background thread. This ensures that the UI does not freeze while the upsert happens.
+ * </p>
+ * <pre>
+ * EquilibreQuery&lt;MyClass, String&gt; query = EquilibreQuery.getQuery(MyClass.class);
+ * query.upsertAllInBackground(objects, new UpsertCallback() {
+ *   public void done(UpsertResult result, EquilibreException e) {
+ *     if (e == null) {
+ *       objectsWereUpserted(result.getInsertedCount(), result.getUpdatedCount());
+ *     } else {
+ *       objectUpsertFailed();
+ *     }
+ *   }
+ * });
+ * </pre>
+ */
+public interface UpsertCallback extends EquilibreCallback2<UpsertResult, EquilibreException> {
+    /**
+     * Override this function with the code you want to run after the upsert is complete.
+     *
+     * @param result
+     *          The number of inserted and updated objects, or {@code null} if it did not succeed.
+     * @param e
+     *          The exception raised by the upsert, or {@code null} if it succeeded.
+     */
+    @Override
+    public void done(UpsertResult result, EquilibreException e);
+}
@@ -0,0 +1,37 @@
+package io.github.angebagui.equilibre;
+
+/**
+ * An {@code UpsertResult} tells how many objects were inserted and how many were updated by
+ * {@link EquilibreQuery#upsertAll(java.util.Collection)}.
+ */
+public class UpsertResult {
+
+    private final int insertedCount;
+    private final int updatedCount;
+
+    UpsertResult(int insertedCount, int updatedCount) {
+        this.insertedCount = insertedCount;
+        this.updatedCount = updatedCount;
+    }
+
+    /**
+     *
+     * @return the number of objects that did not exist and were inserted
+     */
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     *
+     * @return the number of objects that already existed and were updated
+     */
+    public int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "UpsertResult{inserted=" + insertedCount + ", updated=" + updatedCount + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+
+import io.github.angebagui.equilibre.Fixtures.Item;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EquilibreChangeSetTest {
+
+    /**
+     * Compares the items like the DAO compares the fields of two objects.
+     */
+    private static final Dao<Item, Long> DAO = Fixtures.stub(Dao.class, "objectsEqual", new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            return ((Item) args[0]).name.equals(((Item) args[1]).name);
+        }
+    });
+
+    @Test
+    public void insertsEveryObjectOfTheFirstResult() throws Exception {
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(Collections.<Item>emptyList(),
+                items("a", "b", "c"), DAO);
+
+        assertArrayEquals(new int[]{0, 1, 2}, changes.getInserted());
+        assertArrayEquals(new int[0], changes.getRemoved());
+        assertArrayEquals(new int[0], changes.getMovedFrom());
+        assertArrayEquals(new int[0], changes.getChanged());
+        assertEquals(3, changes.getObjects().size());
+    }
+
+    @Test
+    public void isEmptyForTheSameResult() throws Exception {
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(items("a", "b", "c"), items("a", "b", "c"), DAO);
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void findsRemovedInsertedAndChangedObjects() throws Exception {
+        List<Item> previous = items("a", "b", "c", "d");
+        List<Item> objects = items("a", "c", "e");
+        objects.set(1, new Item('c', "c2"));
+
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(previous, objects, DAO);
+
+        assertArrayEquals(new int[]{1, 3}, changes.getRemoved());
+        assertArrayEquals(new int[]{2}, changes.getInserted());
+        assertArrayEquals(new int[]{1}, changes.getChanged());
+        assertArrayEquals(new int[0], changes.getMovedFrom());
+        assertFalse(changes.isEmpty());
+    }
+
+    @Test
+    public void movesOnlyTheObjectsOutOfTheLongestIncreasingRun() throws Exception {
+        // b, c, d and e keep their relative order, only a moves
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(items("a", "b", "c", "d", "e"),
+                items("b", "c", "d", "e", "a"), DAO);
+
+        assertArrayEquals(new int[]{0}, changes.getMovedFrom());
+        assertArrayEquals(new int[]{4}, changes.getMovedTo());
+        assertArrayEquals(new int[0], changes.getInserted());
+        assertArrayEquals(new int[0], changes.getRemoved());
+    }
+
+    @Test
+    public void movesAllButOneObjectOfAReversedResult() throws Exception {
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(items("a", "b", "c", "d"),
+                items("d", "c", "b", "a"), DAO);
+
+        assertEquals(3, changes.getMovedFrom().length);
+        assertEquals(3, changes.getMovedTo().length);
+        for (int k = 0; k < changes.getMovedFrom().length; k++){
+            // Each move goes from the position of an object to its mirrored position
+            assertEquals(3 - changes.getMovedFrom()[k], changes.getMovedTo()[k]);
+        }
+    }
+
+    @Test
+    public void movesAroundInsertionsAndRemovals() throws Exception {
+        // x is removed, y inserted, and e jumps ahead of b, c and d
+        EquilibreChangeSet<Item> changes = EquilibreChangeSet.compute(items("a", "x", "b", "c", "d", "e"),
+                items("a", "e", "b", "y", "c", "d"), DAO);
+
+        assertArrayEquals(new int[]{1}, changes.getRemoved());
+        assertArrayEquals(new int[]{3}, changes.getInserted());
+        assertArrayEquals(new int[]{5}, changes.getMovedFrom());
+        assertArrayEquals(new int[]{1}, changes.getMovedTo());
+    }
+
+    /**
+     * Creates one item per name, identified by the first letter of its name.
+     */
+    private static List<Item> items(String... names){
+        List<Item> items = new ArrayList<Item>();
+        for (String name : names){
+            items.add(new Item(name.charAt(0), name));
+        }
+        return items;
+    }
+}
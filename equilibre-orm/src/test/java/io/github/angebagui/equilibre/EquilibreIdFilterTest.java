@@ -0,0 +1,89 @@
+package io.github.angebagui.equilibre;
+
+import io.github.angebagui.equilibre.Fixtures.Item;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EquilibreIdFilterTest {
+
+    @After
+    public void tearDown() {
+        EquilibreIdFilter.disable(Item.class);
+    }
+
+    @Test
+    public void hasNoFalseNegatives() {
+        EquilibreIdFilter.BloomFilter filter = new EquilibreIdFilter.BloomFilter(10000, 0.01);
+        for (long id = 0; id < 10000; id++){
+            filter.put(id);
+            filter.put("remote-" + id);
+        }
+        for (long id = 0; id < 10000; id++){
+            assertTrue(filter.mightContain(id));
+            assertTrue(filter.mightContain("remote-" + id));
+        }
+    }
+
+    @Test
+    public void keepsTheFalsePositiveRateNearTheExpectedOne() {
+        EquilibreIdFilter.BloomFilter filter = new EquilibreIdFilter.BloomFilter(10000, 0.01);
+        for (long id = 0; id < 10000; id++){
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        for (long id = 10000; id < 110000; id++){
+            if (filter.mightContain(id)){
+                falsePositives++;
+            }
+        }
+        // 1% expected over 100000 absent ids, with a wide margin
+        assertTrue("false positives: " + falsePositives, falsePositives < 3000);
+    }
+
+    @Test
+    public void answersOnlyOnceSeeded() {
+        EquilibreIdFilter.BloomFilter filter = EquilibreIdFilter.startSeeding(Item.class, 1000, 0.01);
+        // Saved while the table is read
+        EquilibreIdFilter.add(new Item(1L));
+        assertFalse(EquilibreIdFilter.isEnabled(Item.class));
+        assertTrue(EquilibreIdFilter.mightContain(Item.class, 2L));
+
+        // Read from the table
+        filter.put(3L);
+        EquilibreIdFilter.finishSeeding(Item.class, filter, true);
+        EquilibreIdFilter.add(new Item(4L));
+
+        assertTrue(EquilibreIdFilter.isEnabled(Item.class));
+        assertTrue(EquilibreIdFilter.mightContain(Item.class, 1L));
+        assertTrue(EquilibreIdFilter.mightContain(Item.class, 3L));
+        assertTrue(EquilibreIdFilter.mightContain(Item.class, 4L));
+        int falsePositives = 0;
+        for (long id = 100; id < 1100; id++){
+            if (EquilibreIdFilter.mightContain(Item.class, id)){
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 30);
+    }
+
+    @Test
+    public void ignoresAFailedOrReplacedSeeding() {
+        EquilibreIdFilter.BloomFilter failed = EquilibreIdFilter.startSeeding(Item.class, 1000, 0.01);
+        EquilibreIdFilter.finishSeeding(Item.class, failed, false);
+        assertFalse(EquilibreIdFilter.isEnabled(Item.class));
+
+        EquilibreIdFilter.BloomFilter replaced = EquilibreIdFilter.startSeeding(Item.class, 1000, 0.01);
+        EquilibreIdFilter.BloomFilter current = EquilibreIdFilter.startSeeding(Item.class, 1000, 0.01);
+        EquilibreIdFilter.finishSeeding(Item.class, replaced, true);
+        assertFalse(EquilibreIdFilter.isEnabled(Item.class));
+        EquilibreIdFilter.finishSeeding(Item.class, current, true);
+        assertTrue(EquilibreIdFilter.isEnabled(Item.class));
+
+        EquilibreIdFilter.disable(Item.class);
+        assertFalse(EquilibreIdFilter.isEnabled(Item.class));
+        assertTrue(EquilibreIdFilter.mightContain(Item.class, 5L));
+    }
+}
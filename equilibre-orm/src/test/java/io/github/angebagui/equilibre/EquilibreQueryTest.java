@@ -0,0 +1,25 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.QueryBuilder;
+
+import io.github.angebagui.equilibre.Fixtures.Item;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EquilibreQueryTest {
+
+    @Test
+    public void findsTheDaoOfTheQueryBuilder() throws Exception {
+        Dao<Item, Long> dao = Fixtures.itemDao();
+        QueryBuilder<Item, Long> builder = dao.queryBuilder();
+
+        assertSame(dao, new EquilibreQuery<Item, Long>(builder).getDao());
+
+        EquilibreQuery<Item, Long> query = new EquilibreQuery<Item, Long>(Fixtures.itemDao().queryBuilder());
+        query.setQueryBuilder(builder);
+        assertSame(dao, query.getDao());
+    }
+}
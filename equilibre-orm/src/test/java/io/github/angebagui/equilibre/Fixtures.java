@@ -0,0 +1,100 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.db.SqliteAndroidDatabaseType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableInfo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+
+/**
+ * The objects shared by the JVM tests, which run without a device nor a database.
+ */
+/** package */ class Fixtures {
+
+    private Fixtures(){
+
+    }
+
+    /**
+     * Creates an implementation of the interface whose only working method is {@code method}, answered
+     * by {@code answer}. The other methods throw an {@link UnsupportedOperationException}.
+     *
+     * @param type the interface, for example {@link com.j256.ormlite.dao.Dao}
+     * @param method the name of the answered method
+     * @param answer gets the calls of the method
+     * @param <T> the type of the interface
+     * @return the stub
+     */
+    static <T> T stub(Class<T> type, final String method, final InvocationHandler answer){
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method called, Object[] args) throws Throwable {
+                if (called.getName().equals(method)){
+                    return answer.invoke(proxy, called, args);
+                }
+                throw new UnsupportedOperationException(called.getName());
+            }
+        }));
+    }
+
+    /**
+     * Builds a DAO of the {@code item} table which only creates query builders, enough to build
+     * statements without a database.
+     *
+     * @return the DAO
+     * @throws SQLException an SQL exception can be thrown if the table can not be described
+     */
+    static Dao<Item, Long> itemDao() throws SQLException {
+        final DatabaseType databaseType = new SqliteAndroidDatabaseType();
+        ConnectionSource connectionSource = stub(ConnectionSource.class, "getDatabaseType", new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return databaseType;
+            }
+        });
+        final TableInfo<Item, Long> tableInfo = new TableInfo<Item, Long>(connectionSource, null, Item.class);
+        return stub(Dao.class, "queryBuilder", new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return new QueryBuilder<Item, Long>(databaseType, tableInfo, (Dao<Item, Long>) proxy);
+            }
+        });
+    }
+
+    /**
+     * An object of the {@code item} table.
+     */
+    public static class Item extends EquilibreObject<Long> {
+
+        @DatabaseField(generatedId = true)
+        Long id;
+        @DatabaseField
+        String name;
+        @DatabaseField
+        long age;
+
+        public Item() {
+        }
+
+        Item(Long id) {
+            this.id = id;
+        }
+
+        Item(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public Long getEquilibreId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.angebagui.equilibre;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.SelectArg;
+
+import io.github.angebagui.equilibre.Fixtures.Item;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class QueryShapeTest {
+
+    private static Dao<Item, Long> dao;
+
+    @BeforeClass
+    public static void setUpDao() throws Exception {
+        dao = Fixtures.itemDao();
+    }
+
+    @Test
+    public void hasTheSameKeyForTheSameShape() {
+        QueryShape first = byNameSince("Alice", 10L);
+        QueryShape second = byNameSince("Bob", 20L);
+
+        assertEquals(first.getKey(), second.getKey());
+        assertTrue(Arrays.equals(new Object[]{"Alice", 10L}, first.getArguments()));
+        assertTrue(Arrays.equals(new Object[]{"Bob", 20L}, second.getArguments()));
+    }
+
+    @Test
+    public void hasAnotherKeyForAnotherShape() {
+        QueryShape base = byNameSince("Alice", 10L);
+
+        QueryShape otherColumn = new QueryShape();
+        otherColumn.where(QueryShape.Operation.EQ, "name", "Alice");
+        otherColumn.where(QueryShape.Operation.GT, "id", 10L);
+        otherColumn.combine(QueryShape.Operation.AND_MANY, 2);
+        assertNotEquals(base.getKey(), otherColumn.getKey());
+
+        QueryShape otherOrder = byNameSince("Alice", 10L);
+        otherOrder.orderBy("age", true);
+        assertNotEquals(base.getKey(), otherOrder.getKey());
+
+        QueryShape otherLimit = byNameSince("Alice", 10L);
+        otherLimit.builder(QueryShape.Operation.LIMIT, null, 20);
+        QueryShape sameLimit = byNameSince("Bob", 20L);
+        sameLimit.builder(QueryShape.Operation.LIMIT, null, 20);
+        QueryShape smallerLimit = byNameSince("Alice", 10L);
+        smallerLimit.builder(QueryShape.Operation.LIMIT, null, 10);
+        assertEquals(otherLimit.getKey(), sameLimit.getKey());
+        assertNotEquals(otherLimit.getKey(), smallerLimit.getKey());
+    }
+
+    @Test
+    public void disablesCachingForValuesThatCanNotBeBound() {
+        assertTrue(byNameSince("Alice", 10L).isCacheable());
+
+        QueryShape nullValue = new QueryShape();
+        nullValue.where(QueryShape.Operation.EQ, "name", (Object) null);
+        assertFalse(nullValue.isCacheable());
+
+        QueryShape argumentHolder = new QueryShape();
+        argumentHolder.where(QueryShape.Operation.EQ, "name", new SelectArg("Alice"));
+        assertFalse(argumentHolder.isCacheable());
+
+        QueryShape object = new QueryShape();
+        object.where(QueryShape.Operation.EQ, "parent", new Item());
+        assertFalse(object.isCacheable());
+
+        QueryShape disabled = byNameSince("Alice", 10L);
+        disabled.disable();
+        assertFalse(disabled.isCacheable());
+        assertFalse(disabled.copy().isCacheable());
+        // The where clauses of the query still give the same rows
+        assertTrue(disabled.isReplayable());
+    }
+
+    @Test
+    public void disablesReplayForJoinedQueries() {
+        QueryShape joined = byNameSince("Alice", 10L);
+        joined.disableReplay();
+
+        assertFalse(joined.isReplayable());
+        assertFalse(joined.isCacheable());
+        assertFalse(joined.copy().isReplayable());
+    }
+
+    @Test
+    public void copiesWithoutSharingTheSteps() {
+        QueryShape shape = byNameSince("Alice", 10L);
+        String key = shape.getKey();
+
+        QueryShape copy = shape.copy();
+        copy.where(QueryShape.Operation.LT, "age", 30);
+        copy.combine(QueryShape.Operation.AND_MANY, 2);
+        copy.builder(QueryShape.Operation.LIMIT, null, 11);
+
+        assertEquals(key, shape.getKey());
+        assertEquals(2, shape.getArguments().length);
+        assertNotEquals(key, copy.getKey());
+        assertTrue(Arrays.equals(new Object[]{"Alice", 10L, 30}, copy.getArguments()));
+    }
+
+    @Test
+    public void buildsTheSameStatementForTheSameShape() throws Exception {
+        QueryShape first = byNameSince("Alice", 10L);
+        first.orderBy("age", false);
+        first.builder(QueryShape.Operation.LIMIT, null, 20);
+        QueryShape second = byNameSince("Bob", 20L);
+        second.orderBy("age", false);
+        second.builder(QueryShape.Operation.LIMIT, null, 20);
+
+        String statement = first.build(dao).prepareStatementString();
+
+        assertEquals(statement, second.build(dao).prepareStatementString());
+        assertEquals("SELECT * FROM `item` WHERE (`name` = ? AND `age` > ? ) ORDER BY `age` DESC LIMIT 20 ",
+                statement);
+    }
+
+    @Test
+    public void buildsTheWhereClausesOnly() throws Exception {
+        QueryShape shape = byNameSince("Alice", 10L);
+        shape.select("name");
+        shape.orderBy("age", true);
+        shape.builder(QueryShape.Operation.LIMIT, null, 20);
+
+        assertEquals("SELECT * FROM `item` WHERE (`name` = ? AND `age` > ? ) ",
+                shape.build(dao, false, false).prepareStatementString());
+        assertFalse(new QueryShape().hasWhere());
+        assertTrue(shape.hasWhere());
+        assertEquals("SELECT * FROM `item` ", new QueryShape().build(dao).prepareStatementString());
+    }
+
+    /**
+     * {@code name = ? AND age > ?}
+     */
+    private static QueryShape byNameSince(String name, long age){
+        QueryShape shape = new QueryShape();
+        shape.where(QueryShape.Operation.EQ, "name", name);
+        shape.where(QueryShape.Operation.GT, "age", age);
+        shape.combine(QueryShape.Operation.AND_MANY, 2);
+        return shape;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.angebagui.equilibre;
+
+import io.github.angebagui.equilibre.Fixtures.Item;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bolts.Task;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void doesNotJoinAReadStartedBeforeAWrite() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+        Object read = Arrays.asList(Item.class, "count", "EQ(name,1)", Arrays.asList("Alice"));
+
+        Task<Integer> before = SingleFlight.run(read, TableVersions.get(Item.class), new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                reads.incrementAndGet();
+                // Still running when the write is committed
+                release.await();
+                return 1;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+
+        // A write to the table is committed
+        TableVersions.bump(Item.class);
+
+        Task<Integer> after = SingleFlight.run(read, TableVersions.get(Item.class), new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                reads.incrementAndGet();
+                return 2;
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+
+        assertNotSame(before, after);
+        assertTrue(after.waitForCompletion(5, TimeUnit.SECONDS));
+        assertEquals(2, (int) after.getResult());
+        release.countDown();
+        assertTrue(before.waitForCompletion(5, TimeUnit.SECONDS));
+        assertEquals(1, (int) before.getResult());
+        assertEquals(2, reads.get());
+    }
+}
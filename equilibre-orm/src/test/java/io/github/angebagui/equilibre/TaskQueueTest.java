@@ -0,0 +1,131 @@
+package io.github.angebagui.equilibre;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Continuation;
+import bolts.Task;
+
+import static org.junit.Assert.*;
+
+public class TaskQueueTest {
+
+    @Test
+    public void runsTasksInOrder() throws Exception {
+        TaskQueue queue = new TaskQueue();
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 200; i++){
+            queue.enqueue(record(ran, i));
+            expected.add(i);
+        }
+        queue.waitUntilFinished();
+
+        assertEquals(expected, ran);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void runsAfterFailedPredecessor() throws Exception {
+        TaskQueue queue = new TaskQueue();
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        Task<Void> failed = queue.enqueue(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> toAwait) throws Exception {
+                return toAwait.continueWith(new Continuation<Void, Void>() {
+                    @Override
+                    public Void then(Task<Void> task) throws Exception {
+                        throw new IllegalStateException("write failed");
+                    }
+                }, Task.BACKGROUND_EXECUTOR);
+            }
+        });
+        Task<Void> next = queue.enqueue(record(ran, 1));
+        next.waitForCompletion();
+
+        assertTrue(failed.isFaulted());
+        assertFalse(next.isFaulted());
+        assertEquals(Arrays.asList(1), ran);
+    }
+
+    @Test
+    public void runsAfterCancelledPredecessor() throws Exception {
+        TaskQueue queue = new TaskQueue();
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final Task<Void>.TaskCompletionSource pending = Task.create();
+        queue.enqueue(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> toAwait) throws Exception {
+                return pending.getTask();
+            }
+        });
+        // Already cancelled when its turn arrives
+        queue.enqueue(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> toAwait) throws Exception {
+                return Task.cancelled();
+            }
+        });
+        Task<Void> next = queue.enqueue(record(ran, 2));
+
+        assertFalse(next.waitForCompletion(100, TimeUnit.MILLISECONDS));
+        pending.setCancelled();
+        assertTrue(next.waitForCompletion(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2), ran);
+    }
+
+    @Test
+    public void waitsUntilEveryTaskIsFinished() throws Exception {
+        final TaskQueue queue = new TaskQueue();
+        final Task<Void>.TaskCompletionSource pending = Task.create();
+        queue.enqueue(new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> toAwait) throws Exception {
+                return pending.getTask();
+            }
+        });
+        queue.enqueue(record(Collections.synchronizedList(new ArrayList<Integer>()), 1));
+        assertEquals(2, queue.getDepth());
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.waitUntilFinished();
+                    finished.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+
+        assertFalse(finished.await(100, TimeUnit.MILLISECONDS));
+        pending.setResult(null);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.getDepth());
+        waiter.join();
+    }
+
+    private static Continuation<Void, Task<Void>> record(final List<Integer> ran, final int value){
+        return new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<Void> toAwait) throws Exception {
+                return toAwait.continueWith(new Continuation<Void, Void>() {
+                    @Override
+                    public Void then(Task<Void> task) throws Exception {
+                        ran.add(value);
+                        return null;
+                    }
+                }, Task.BACKGROUND_EXECUTOR);
+            }
+        };
+    }
+}